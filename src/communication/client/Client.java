@@ -2,6 +2,7 @@ package communication.client;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
@@ -13,9 +14,14 @@ import communication.exceptions.MoveOutOfRange;
 import communication.exceptions.ServerUnavailableException;
 import game.Tuple;
 import player.AI;
+import player.AlphaBeta;
+import player.EndgameDatabase;
 import player.Human;
+import player.LazySMP;
 import player.MinMax;
+import player.MonteCarlo;
 import player.Naive;
+import player.NeuralNet;
 import player.Player;
 import player.SmartMinMax;
 import player.SmartMinMaxThreaded;
@@ -26,6 +32,14 @@ import communication.ProtocolMessages;
  * @ author Kelvin Jaramillo.
  */
 public class Client {
+	/**
+	 * File of solved endgames used by the alpha-beta players when it exists.
+	 */
+	public static final String ENDGAME_DATABASE = "endgame.db";
+	/**
+	 * Base name of the weight files of the neural net players, the newest generation is used.
+	 */
+	public static final String NEURAL_NET = "neuralnet";
 	/**
 	 * Socket 	used for connection with the server.
 	 */
@@ -427,23 +441,37 @@ public class Client {
 									inputSplit[inputSplit.length - 2].equals(name)) {
 								yourTurn = true;
 								makeAIPlay();
+							} else if (player instanceof AI) {
+								((AI) player).startPondering();
 							}
 						} else if (inputSplit[0].equals(ProtocolMessages.MOVE)) {
 							yourTurn = !yourTurn;
-							if (inputSplit.length == 2) {
+							if (player instanceof AI) {
+								//the move was the AI's own if it is now the opponent's turn
+								makeAIMove(inputSplit, !yourTurn);
+							} else if (inputSplit.length == 2) {
 								makeMove(inputSplit[1]);
 							} else {
 								makeMove(inputSplit[1], inputSplit[2]);
 							}
-							if (player instanceof AI) {
+							if (player instanceof AI && yourTurn) {
 								makeAIPlay();
+							} else if (player instanceof AI) {
+								//think about the opponent's move until it arrives
+								((AI) player).startPondering();
 							}
 						} else if (inputSplit[0].equals(ProtocolMessages.GAMEOVER)) {
+							if (player instanceof AI) {
+								((AI) player).stopPondering();
+							}
 							onGame = false;
 							inQueue = false;
 							yourTurn = false;
 							break;
 						} else if (inputSplit[0].equals(ProtocolMessages.ERROR)) {
+							if (player instanceof AI) {
+								((AI) player).stopPondering();
+							}
 							if (onGame) {
 								String theBoard = player.getBoard().getBoard().toString();
 								player = new Human();
@@ -469,6 +497,22 @@ public class Client {
 		});  
 		t1.start(); 
 	}
+	/**
+	 * Makes a move of either player on the AI's board, so it can keep track of the collected balls.
+	 * @param inputSplit the MOVE command split on the delimiter
+	 * @param own true if the move was the AI's own
+	 * @requires player instanceof AI
+	 */
+	public void makeAIMove(String[] inputSplit, boolean own) {
+		int first = Integer.parseInt(inputSplit[1].replaceAll("[^0-9]", ""));
+		if (inputSplit.length == 2) {
+			((AI) player).playMove(first, own);
+		} else {
+			int second = Integer.parseInt(inputSplit[2].replaceAll("[^0-9]", ""));
+			((AI) player).playMove(first, second, own);
+		}
+		view.showMessage(player.getBoard().toFormattedString());
+	}
 	/**
 	 * Makes a double move in the players board.
 	 * @param move Integer move.
@@ -535,7 +579,11 @@ public class Client {
 					+ "A.............................for Naive. Level 0.\n"
 					+ "M............................for MinMax. Level 1.\n"
 					+ "S......................for Smart MinMax. Level 1.\n"
-					+ "T........for Smart multi threaded MinMax Level 2.";
+					+ "T........for Smart multi threaded MinMax Level 2.\n"
+					+ "B.............for AlphaBeta with a time per move.\n"
+					+ "P....for parallel AlphaBeta with a time per move.\n"
+					+ "C...........for Monte Carlo with a time per move.\n"
+					+ "N.................for the trained neural network.";
 			String type = view.getString(msg);
 			if (type.equals("H")) {
 				playerIn = new Human();
@@ -559,12 +607,104 @@ public class Client {
 				((SmartMinMaxThreaded) strategy).setLevel(2);
 				playerIn = new AI(strategy);
 				break;
+			} else if (type.equals("B")) {
+				AlphaBeta strategy = new AlphaBeta();
+				strategy.setTimeLimit(chooseTimeLimit());
+				strategy.setEndgameDatabase(loadEndgameDatabase());
+				playerIn = new AI(strategy);
+				((AI) playerIn).setPondering(choosePondering());
+				break;
+			} else if (type.equals("P")) {
+				LazySMP strategy = new LazySMP();
+				strategy.setTimeLimit(chooseTimeLimit());
+				strategy.setEndgameDatabase(loadEndgameDatabase());
+				playerIn = new AI(strategy);
+				((AI) playerIn).setPondering(choosePondering());
+				break;
+			} else if (type.equals("C")) {
+				MonteCarlo strategy = new MonteCarlo();
+				strategy.setTimeLimit(chooseTimeLimit());
+				playerIn = new AI(strategy);
+				break;
+			} else if (type.equals("N")) {
+				NeuralNet strategy = loadNeuralNet();
+				if (strategy == null) {
+					continue;
+				}
+				playerIn = new AI(strategy);
+				break;
 			} else {
 				continue;
 			}
 		}
 		return playerIn;
 	}
+	/**
+	 * Asks the user how many milliseconds the AI may think per move.
+	 * @return time per move in milliseconds
+	 */
+	public long chooseTimeLimit() {
+		while (true) {
+			String time = view.getString("How many milliseconds may the AI think per move?");
+			try {
+				long millis = Long.parseLong(time.trim());
+				if (millis > 0) {
+					return millis;
+				}
+			} catch (NumberFormatException e) {
+				view.showMessage("Please enter a positive number.");
+			}
+		}
+	}
+	/**
+	 * Asks the user whether the AI may think while the opponent is to move.
+	 * @return true if the AI ponders
+	 */
+	public boolean choosePondering() {
+		while (true) {
+			String answer = view.getString("Should the AI think on the opponent's time? (y/n)");
+			if (answer.trim().equalsIgnoreCase("y")) {
+				return true;
+			} else if (answer.trim().equalsIgnoreCase("n")) {
+				return false;
+			}
+		}
+	}
+	/**
+	 * Maps the endgame database file into memory if there is one.
+	 * @return database, null if there is no usable file
+	 */
+	public EndgameDatabase loadEndgameDatabase() {
+		if (!new File(ENDGAME_DATABASE).exists()) {
+			return null;
+		}
+		try {
+			return EndgameDatabase.open(ENDGAME_DATABASE);
+		} catch (IOException e) {
+			view.showMessage("Could not read " + ENDGAME_DATABASE + ": " + e.getMessage());
+			return null;
+		}
+	}
+	/**
+	 * Reads the newest generation of the quantized neural net weights,
+	 * or of the float weights if there are no quantized ones.
+	 * @return network, null if there is no usable file
+	 */
+	public NeuralNet loadNeuralNet() {
+		try {
+			NeuralNet net = NeuralNet.loadLatestQuantized(NEURAL_NET);
+			if (net == null) {
+				net = NeuralNet.loadLatest(NEURAL_NET);
+			}
+			if (net == null) {
+				view.showMessage("No " + NEURAL_NET + " weight files found, train them with NeuralNetTrainer first.");
+			}
+			return net;
+		} catch (IOException e) {
+			view.showMessage("Could not read the " + NEURAL_NET + " weights: " + e.getMessage());
+			return null;
+		}
+	}
 	/**
 	 * Makes the a AI player to send the move an of the strategies decide to make.
 	 * @requires player != null && player instanceof AI
@@ -572,7 +712,11 @@ public class Client {
 	public void makeAIPlay() {
 		if (yourTurn) {
 			int move = ((AI) this.player).determineSingleMove();
-			Tuple<Integer, Integer> moves = ((AI) player).determineDoubleMove();
+			//a double move is only allowed, and only searched, when no single move is left
+			Tuple<Integer, Integer> moves = null;
+			if (move == -1) {
+				moves = ((AI) player).determineDoubleMove();
+			}
 			if (move != -1) {
 				try {
 					sendMessage(ProtocolMessages.MOVE + ProtocolMessages.DELIMITER + move);
@@ -1,16 +1,20 @@
 package game;
 
 /**
- * 
+ *
  * @author Kai Ferdelman
  *
  */
 
 public class Ball {
-	/** The color the ball has while it is on the board. */
+	/** The color the ball has while it is not placed on a board. */
 	private int color;
 	/** The color of the ball when it was removed. */
 	private int originalColor;
+	/** The board this ball is placed on, null if the ball is not on a board. */
+	private Board board;
+	/** The index of the cell this ball occupies on the board. */
+	private int index;
 	
 	/**
 	 * Constructs a Ball with one of six colors.
@@ -20,11 +24,25 @@ public class Ball {
 		this.color = color;
 	}
 	
+	/**
+	 * Constructs a Ball that represents a single cell of a board.
+	 * Its color is read from and written to the board directly.
+	 * @param board
+	 * @param index
+	 */
+	Ball(Board board, int index) {
+		this.board = board;
+		this.index = index;
+	}
+	
 	/**
 	 * Returns the balls color.
 	 * @return this.color
 	 */
 	public int getColor() {
+		if (board != null) {
+			return board.getColor(index);
+		}
 		return color;
 	}
 	
@@ -33,7 +51,11 @@ public class Ball {
 	 * @param color
 	 */
 	public void setColor(int color) {
-		this.color = color;
+		if (board != null) {
+			board.setColor(index, color);
+		} else {
+			this.color = color;
+		}
 	}
 	
 	/**
@@ -41,10 +63,15 @@ public class Ball {
 	 * Only works if the ball is not removed yet.
 	 */
 	public void remove() {
-		if (color != 0) {
-			originalColor = color;
+		int current = getColor();
+		if (current != 0) {
+			originalColor = current;
+		}
+		if (board != null) {
+			board.removeBalls(1L << index);
+		} else {
+			color = 0;
 		}
-		color = 0;
 	}
 	
 	/**
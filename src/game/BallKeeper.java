@@ -1,19 +1,41 @@
 package game;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
- * 
- * @author Kai Ferdelman
  *
+ * @author Kai Ferdelman
+ * Keeps track of the balls collected by both players.
+ * Every player has a counter per color, so no ball objects are stored.
+ * The totals, the points, the colors one ball short of a point and the score difference
+ * are updated with every change, so reading them takes constant time.
+ * Taking balls away again by adding a negative count restores all of them exactly.
  */
 
 public class BallKeeper {
-	/** ArrayList of balls removed from the game and assigned to player 1. */
-	List<Ball> player1Balls;
-	/** ArrayList of balls removed from the game and assigned to player 2. */
-	List<Ball> player2Balls;
+	/** Index of player 1. */
+	public static final int PLAYER1 = 0;
+	/** Index of player 2. */
+	public static final int PLAYER2 = 1;
+	/** Index of the total number of balls within the counters of a player. */
+	static final int TOTAL = 0;
+	/** Index of the points within the counters of a player. */
+	static final int POINTS = 7;
+	/** Index of the number of colors one ball short of a point within the counters of a player. */
+	static final int PAIRS = 8;
+	/** Number of counters per player: total, six colors, points and pairs. */
+	static final int STRIDE = 9;
+	/** Weight of a point in the score, so points always decide before the number of balls. */
+	public static final int POINT_WEIGHT = 100;
+	
+	/**
+	 * Counters of both players, player * STRIDE + index.
+	 * Index 0 holds the total number of balls, 1 - 6 the balls per color, 7 the points
+	 * and 8 the number of colors one ball short of a point.
+	 */
+	int[] counters;
+	/** Zobrist hash of the counters of both players. */
+	long hash;
+	/** Score of player 1: the difference in points times POINT_WEIGHT plus the difference in balls. */
+	int score;
 	/** Name of player 1. */
 	String player1;
 	/** Name of player 2. */
@@ -25,43 +47,44 @@ public class BallKeeper {
 	 * @param player2
 	 */
 	public BallKeeper(String player1, String player2) {
-		player1Balls = new ArrayList<Ball>();
-		player2Balls = new ArrayList<Ball>();
+		counters = new int[2 * STRIDE];
 		this.player1 = player1;
 		this.player2 = player2;
 	}
 	
 	/**
-	 * Returns the points for a single player given their name.
-	 * Three balls of the same color count as a single point.
+	 * Returns the index of a player given their name, -1 if the name is unknown.
 	 * @param player
-	 * @return player.points
+	 * @return index
 	 */
-	public int getPoints(String player) {
-		int points = 0;
+	public int getPlayerIndex(String player) {
 		if (player.equals(player1)) {
-			for (int i = 1; i < 7; i++) {
-				int colorPoints = 0;
-				for (Ball b : player1Balls) {
-					if (b.getOriginalColor() == i) {
-						colorPoints++;
-					}
-				}
-				points += colorPoints / 3;
-			}
+			return PLAYER1;
 		}
 		if (player.equals(player2)) {
-			for (int i = 1; i < 7; i++) {
-				int colorPoints = 0;
-				for (Ball b : player2Balls) {
-					if (b.getOriginalColor() == i) {
-						colorPoints++;
-					}
-				}
-				points += colorPoints / 3;
-			}
+			return PLAYER2;
 		}
-		return points;
+		return -1;
+	}
+	
+	/**
+	 * Returns the points for a single player given their name.
+	 * Three balls of the same color count as a single point.
+	 * @param player
+	 * @return player.points
+	 */
+	public int getPoints(String player) {
+		int index = getPlayerIndex(player);
+		return index < 0 ? 0 : getPoints(index);
+	}
+	
+	/**
+	 * Returns the points for a single player given their index.
+	 * @param player
+	 * @return player.points
+	 */
+	public int getPoints(int player) {
+		return counters[player * STRIDE + POINTS];
 	}
 	
 	/**
@@ -70,30 +93,113 @@ public class BallKeeper {
 	 * @return player.numOfBalls
 	 */
 	public int getNumOfBalls(String player) {
-		if (player.equals(player1)) {
-			return player1Balls.size();
+		int index = getPlayerIndex(player);
+		return index < 0 ? 0 : getNumOfBalls(index);
+	}
+	
+	/**
+	 * Returns the number of balls a player has given their index.
+	 * @param player
+	 * @return player.numOfBalls
+	 */
+	public int getNumOfBalls(int player) {
+		return counters[player * STRIDE + TOTAL];
+	}
+	
+	/**
+	 * Returns the number of balls of one color a player has given their index.
+	 * @param player
+	 * @param color
+	 * @return player.numOfBalls of the color
+	 */
+	public int getNumOfBalls(int player, int color) {
+		return counters[player * STRIDE + color];
+	}
+	
+	/**
+	 * Returns the number of colors of which a player has two balls beyond a multiple of three,
+	 * so the next ball of the color is a point.
+	 * @param player index
+	 * @return colors
+	 */
+	public int getPairs(int player) {
+		return counters[player * STRIDE + PAIRS];
+	}
+	
+	/**
+	 * Returns the score of a player: the difference in points with the opponent times POINT_WEIGHT
+	 * plus the difference in balls. A positive score means the player is winning.
+	 * @param player index
+	 * @return score
+	 */
+	public int getScore(int player) {
+		return player == PLAYER1 ? score : -score;
+	}
+	
+	/**
+	 * Returns the Zobrist hash of the collected balls of both players.
+	 * @return hash
+	 */
+	public long getHash() {
+		return hash;
+	}
+	
+	/**
+	 * Adds a number of balls of one color to the given player.
+	 * @param player index
+	 * @param color
+	 * @param count
+	 */
+	public void addBalls(int player, int color, int count) {
+		int base = player * STRIDE;
+		int before = counters[base + color];
+		hash ^= Zobrist.count(player, color, before) ^ Zobrist.count(player, color, before + count);
+		int after = before + count;
+		int points = after / 3 - before / 3;
+		counters[base + color] = after;
+		counters[base + TOTAL] += count;
+		counters[base + POINTS] += points;
+		counters[base + PAIRS] += (after % 3 == 2 ? 1 : 0) - (before % 3 == 2 ? 1 : 0);
+		int change = points * POINT_WEIGHT + count;
+		score += player == PLAYER1 ? change : -change;
+	}
+	
+	/**
+	 * Adds all balls of the board marked in the bitboard to the given player.
+	 * The balls are not removed from the board.
+	 * @param player index
+	 * @param board
+	 * @param mask bitboard of the collected balls
+	 */
+	public void addBalls(int player, Board board, long mask) {
+		for (int c = 1; c < 7; c++) {
+			int count = Long.bitCount(board.getColorMask(c) & mask);
+			if (count != 0) {
+				addBalls(player, c, count);
+			}
 		}
-		if (player.equals(player2)) {
-			return player2Balls.size();
+	}
+	
+	/**
+	 * Adds a removed ball to the given players collection.
+	 * @param ball
+	 * @param player index
+	 */
+	public void addBall(Ball ball, int player) {
+		if (ball.getOriginalColor() != 0) {
+			addBalls(player, ball.getOriginalColor(), 1);
 		}
-		return 0;
 	}
 	
 	/**
-	 * Adds a ball to the given players ball list.
+	 * Adds a removed ball to the given players collection.
 	 * @param ball
 	 * @param player
 	 */
 	public void addBall(Ball ball, String player) {
-		if (player.equals(player1)) {
-			if (!player1Balls.contains(ball)) {
-				player1Balls.add(ball);
-			}
-		}
-		if (player.equals(player2)) {
-			if (!player2Balls.contains(ball)) {
-				player2Balls.add(ball);
-			}
+		int index = getPlayerIndex(player);
+		if (index >= 0) {
+			addBall(ball, index);
 		}
 	}
 	
@@ -102,41 +208,56 @@ public class BallKeeper {
 	 * First the points are taken into consideration.
 	 * If they are the same for both players, the number of balls decides the winner.
 	 * If the players have the same amount of balls its a draw.
+	 * @return winner index, -1 for a draw
+	 */
+	public int getWinnerIndex() {
+		int points = getPoints(PLAYER1) - getPoints(PLAYER2);
+		if (points != 0) {
+			return points > 0 ? PLAYER1 : PLAYER2;
+		}
+		int balls = getNumOfBalls(PLAYER1) - getNumOfBalls(PLAYER2);
+		if (balls != 0) {
+			return balls > 0 ? PLAYER1 : PLAYER2;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Determines the winner between the two players.
+	 * See getWinnerIndex()
 	 * @return winner
 	 */
 	public String getWinner() {
-		if (getPoints(player1) > getPoints(player2)) {
+		int winner = getWinnerIndex();
+		if (winner == PLAYER1) {
 			return player1;
-		} else if (getPoints(player2) > getPoints(player1)) {
+		} else if (winner == PLAYER2) {
 			return player2;
 		} else {
-			if (getNumOfBalls(player1) > getNumOfBalls(player2)) {
-				return player1;
-			} else if (getNumOfBalls(player2) > getNumOfBalls(player1)) {
-				return player2;
-			} else {
-				return "Draw";
-			}
+			return "Draw";
 		}
 	}
-
+	
+	/**
+	 * Takes all balls away from both players.
+	 */
+	public void clear() {
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = 0;
+		}
+		hash = 0;
+		score = 0;
+	}
+	
 	/**
 	 * Creates a deep copy of the BallKeeper object.
 	 * @return new BallKeeper
 	 */
 	public BallKeeper copy() {
-		// TODO Auto-generated method stub
-		BallKeeper bk = new BallKeeper(String.valueOf(player1), String.valueOf(player2));
-		for (Ball b : this.player1Balls) {
-			Ball newBall = new Ball(b.getOriginalColor());
-			newBall.remove();
-			bk.addBall(newBall, this.player1);
-		}
-		for (Ball b : this.player2Balls) {
-			Ball newBall = new Ball(b.getOriginalColor());
-			newBall.remove();
-			bk.addBall(newBall, this.player2);
-		}
+		BallKeeper bk = new BallKeeper(player1, player2);
+		System.arraycopy(counters, 0, bk.counters, 0, counters.length);
+		bk.hash = hash;
+		bk.score = score;
 		return bk;
 	}
 }
@@ -1,26 +1,78 @@
 package game;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- * 
- * @author Kai Ferdelman
  *
+ * @author Kai Ferdelman
+ * The board is stored as bitboards.
+ * Cell i of the board (row * 7 + column) is bit i of a long.
+ * There is one bitboard per color and one bitboard marking all occupied cells.
  */
 
 public class Board {
 	/** Defines the length of the boards side. */
 	public int boardSize;
-	/** Ball array storing all on board balls. */
-	Ball[] board;
+	/** Bitboards of the balls on the board, indexed by color (1 - 6). Index 0 is unused. */
+	long[] colors;
+	/** Bitboard of all cells that hold a ball. */
+	long occupied;
+	/** Zobrist hash of the balls on the board, kept up to date by every change. */
+	long hash;
+	/**
+	 * Undo journal of the moves and removals applied to the board.
+	 * A move is stored as one entry holding the move and the previous colors of its line.
+	 * A removal is stored as the three bit planes of the removed colors followed by its entry.
+	 */
+	long[] journal;
+	/** Number of used slots in the journal. */
+	int journalSize;
+	
+	/** Mask of the 7 bits of a single line. */
+	static final long LINE = 0x7FL;
+	/** Mask of all 49 cells of the board. */
+	static final long FULL = (1L << 49) - 1;
+	/** Mask of the cells in the first column. */
+	static final long FIRST_COLUMN = 0x40810204081L;
+	/** Mask of all cells except the ones in the last column. */
+	static final long NOT_LAST_COLUMN = FULL & ~(FIRST_COLUMN << 6);
+	/** Multiplier moving cell k of the first column onto bit 42 + k without carries. */
+	static final long COLUMN_GATHER = 0x41041041040L;
+	/** Journal entry flag marking a removal. */
+	static final long REMOVAL = 1L;
+	/**
+	 * Compacted lines, indexed by (occupied line bits << 7 | line bits).
+	 * TO_START packs the bits towards cell 0 (left, up), TO_END towards cell 6 (right, down).
+	 */
+	static final byte[] TO_START = new byte[1 << 14];
+	/** See TO_START. */
+	static final byte[] TO_END = new byte[1 << 14];
+	/** Column bitboards for all 7 bit lines, used to write a line into a column. */
+	static final long[] COLUMN_SPREAD = new long[1 << 7];
+	
+	static {
+		for (int occ = 0; occ < 1 << 7; occ++) {
+			int free = 7 - Integer.bitCount(occ);
+			for (int bits = 0; bits < 1 << 7; bits++) {
+				long packed = compact(bits, occ);
+				TO_START[occ << 7 | bits] = (byte) packed;
+				TO_END[occ << 7 | bits] = (byte) (packed << free);
+			}
+			for (int k = 0; k < 7; k++) {
+				COLUMN_SPREAD[occ] |= (long) ((occ >>> k) & 1) << (k * 7);
+			}
+		}
+	}
 	
 	/**
-	 * Constructs a new board and with a ball array according to the size.
+	 * Constructs a new empty board.
 	 */
 	public Board() {
 		boardSize = 7;
-		board = new Ball[boardSize * boardSize];
+		colors = new long[7];
+		journal = new long[64];
 		
 	}
 	
@@ -29,11 +81,9 @@ public class Board {
 	 * @param boardString is the string sent by the server to setup the board.
 	 */
 	public void setBoard(String boardString) {
-		String[] spliting = boardString.split("");
-		int num = 0;
-		for (int i = 0; i < spliting.length; i++) {
-			num = Integer.parseInt(spliting[i]);
-			board[i] = new Ball(num);
+		fillEmpty(this);
+		for (int i = 0; i < boardString.length(); i++) {
+			setColor(i, Character.getNumericValue(boardString.charAt(i)));
 		}
 	}
 	
@@ -44,26 +94,28 @@ public class Board {
 	 * The balls are placed randomly each checking their neighbors as to not be the same color.
 	 */
 	public void populateBoard() {
-		int[] colors = {0, 0, 0, 0, 0, 0};
+		fillEmpty(this);
+		int cells = boardSize * boardSize;
+		int[] colorCount = {0, 0, 0, 0, 0, 0};
 		int firstColor = (int) ((Math.random() * 6) + 1);
-		colors[firstColor - 1]++;
-		board[0] = new Ball(firstColor);
+		colorCount[firstColor - 1]++;
+		setColor(0, firstColor);
 		for (int i = 1; i < boardSize; i++) {
 			int color = 0;
-			while (color == board[i - 1].getColor() || color == 0 || colors[color - 1] >= 8) {
+			while (color == getColor(i - 1) || color == 0 || colorCount[color - 1] >= 8) {
 				color = (int) ((Math.random() * 6) + 1);
 			}
-			board[i] = new Ball(color);
-			colors[color - 1]++;
+			setColor(i, color);
+			colorCount[color - 1]++;
 		}
-		for (int i = boardSize; i < board.length; i++) {
-			if (i != board.length / 2) {
+		for (int i = boardSize; i < cells; i++) {
+			if (i != cells / 2) {
 				int color = 0;
 				int attempts = 0;
-				while (color == board[i - 1].getColor() ||
-						color == board[i - boardSize].getColor() ||
+				while (color == getColor(i - 1) ||
+						color == getColor(i - boardSize) ||
 						color == 0 ||
-						colors[color - 1] >= 8) {
+						colorCount[color - 1] >= 8) {
 					color = (int) ((Math.random() * 6) + 1);
 					attempts++;
 					if (attempts > 100) {
@@ -71,10 +123,8 @@ public class Board {
 						return;
 					}
 				}
-				board[i] = new Ball(color);
-				colors[color - 1]++;
-			} else {
-				board[i] = new Ball(0);
+				setColor(i, color);
+				colorCount[color - 1]++;
 			}
 		}
 	}
@@ -89,28 +139,99 @@ public class Board {
 	
 	/**
 	 * Returns a deep copy of the current board.
+	 * The copy starts with an empty undo journal.
 	 * @return new Board
 	 */
 	public Board getCopy() {
 		Board copy = new Board();
-		copy.fillEmpty(copy);
-		for (int i = 0; i < board.length; i++) {
-			copy.board[i].setColor(board[i].getColor());
-		}
+		System.arraycopy(colors, 0, copy.colors, 0, colors.length);
+		copy.occupied = occupied;
+		copy.hash = hash;
 		copy.boardSize = boardSize;
 		return copy;
 	}
 	
+	/**
+	 * Returns the color of the ball on the given cell, 0 if the cell is empty.
+	 * @param index of the cell
+	 * @return color
+	 */
+	public int getColor(int index) {
+		long bit = 1L << index;
+		if ((occupied & bit) == 0) {
+			return 0;
+		}
+		for (int c = 1; c < colors.length; c++) {
+			if ((colors[c] & bit) != 0) {
+				return c;
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Sets the color of the given cell. Color 0 empties the cell.
+	 * The change is not recorded in the undo journal.
+	 * @param index of the cell
+	 * @param color
+	 */
+	public void setColor(int index, int color) {
+		long bit = 1L << index;
+		hash ^= Zobrist.cell(index, getColor(index)) ^ Zobrist.cell(index, color);
+		for (int c = 1; c < colors.length; c++) {
+			colors[c] &= ~bit;
+		}
+		if (color == 0) {
+			occupied &= ~bit;
+		} else {
+			colors[color] |= bit;
+			occupied |= bit;
+		}
+	}
+	
+	/**
+	 * Returns the bitboard of all cells holding a ball of the given color.
+	 * @param color
+	 * @return bitboard
+	 */
+	public long getColorMask(int color) {
+		return colors[color];
+	}
+	
+	/**
+	 * Returns the bitboard of all cells holding a ball.
+	 * @return bitboard
+	 */
+	public long getOccupied() {
+		return occupied;
+	}
+	
+	/**
+	 * Returns the Zobrist hash of the balls on the board.
+	 * @return hash
+	 */
+	public long getHash() {
+		return hash;
+	}
+	
+	/**
+	 * Returns the number of balls left on the board.
+	 * @return number of balls
+	 */
+	public int getNumOfBalls() {
+		return Long.bitCount(occupied);
+	}
+	
 	/**
 	 * Returns a string based on the color of the balls in the array.
 	 * @return ball array string
 	 */
 	public String toString() {
-		String s = "";
-		for (int i = 0; i < board.length; i++) {
-			s += board[i].getColor();
+		char[] s = new char[boardSize * boardSize];
+		for (int i = 0; i < s.length; i++) {
+			s[i] = (char) ('0' + getColor(i));
 		}
-		return s;
+		return new String(s);
 	}
 	
 	/**
@@ -121,11 +242,11 @@ public class Board {
 	public String toFormattedString() {
 		String s = "";
 		
-		for (int i = 0; i < board.length; i++) {
+		for (int i = 0; i < boardSize * boardSize; i++) {
 			if (i % boardSize == 0) {
 				s += "\n\n";
 			}
-			s += board[i].getColor() + "\t";
+			s += getColor(i) + "\t";
 		}
 		
 		return s;
@@ -138,83 +259,86 @@ public class Board {
 	 * 14 - 20 -> move up
 	 * 21 - 27 -> move down
 	 * All balls in the selected row or column are aligned in the matching direction.
+	 * The line is read from every bitboard, compacted with a table lookup and written back.
  	 * @param move
 	 */
 	public void doMove(int move) {
-		
-		int ballPointer;
-		int freeSlotPointer;
-		
-
-		//move left (0-6)
-		if (move >= 0 && move <= 6) {
-			freeSlotPointer = 0 + (boardSize * move);
-			ballPointer = 0 + (boardSize * move);
-			for (int i = 0; i < boardSize; i++) {
-				if (board[ballPointer].getColor() != 0) {
-					board[freeSlotPointer].setColor(board[ballPointer].getColor());
-					freeSlotPointer++;
-				}
-				ballPointer++;
-			}
-			while (freeSlotPointer != ballPointer) {
-				board[freeSlotPointer].remove();
-				freeSlotPointer++;
-			}
+		if (move < 0 || move >= boardSize * 4) {
+			return;
 		}
-		
-		//move right (7-13)
-		if (move >= 7 && move <= 13) {
-			freeSlotPointer = boardSize - 1 + (boardSize * (move - 7));
-			ballPointer = boardSize - 1 + (boardSize * (move - 7));
-			for (int i = 0; i < boardSize; i++) {
-				if (board[ballPointer].getColor() != 0) {
-					board[freeSlotPointer].setColor(board[ballPointer].getColor());
-					freeSlotPointer--;
-				}
-				ballPointer--;
-			}
-			while (freeSlotPointer != ballPointer) {
-				board[freeSlotPointer].remove();
-				freeSlotPointer--;
-			}
+		boolean row = move < 14;
+		byte[] table = (move / 7) % 2 == 1 ? TO_END : TO_START;
+		int line = move % 7;
+		int occ = (int) getLine(occupied, row, line) << 7;
+		long previous = 0;
+		for (int c = 1; c < colors.length; c++) {
+			long bits = getLine(colors[c], row, line);
+			long packed = table[occ | (int) bits];
+			previous |= bits << ((c - 1) * 7);
+			colors[c] = setLine(colors[c], row, line, packed);
+			hash ^= Zobrist.cells(c, setLine(0, row, line, bits ^ packed));
 		}
-		
-		//move up (14-20)
-		if (move >= 14 && move <= 20) {
-			freeSlotPointer = move - 14;
-			ballPointer = move - 14;
-			for (int i = 0; i < boardSize; i++) {
-				if (board[ballPointer].getColor() != 0) {
-					board[freeSlotPointer].setColor(board[ballPointer].getColor());
-					freeSlotPointer += boardSize;
+		occupied = setLine(occupied, row, line, table[occ | occ >>> 7]);
+		push((previous << 5 | move) << 1);
+	}
+	
+	/**
+	 * Reverts the last move applied with doMove(int move),
+	 * including all balls that were removed after it.
+	 * Does nothing if there is no move to revert.
+	 */
+	public void undoMove() {
+		while (journalSize > 0) {
+			long entry = journal[--journalSize];
+			if ((entry & REMOVAL) != 0) {
+				long plane2 = journal[--journalSize];
+				long plane1 = journal[--journalSize];
+				long plane0 = journal[--journalSize];
+				long removed = plane0 | plane1 | plane2;
+				for (int c = 1; c < colors.length; c++) {
+					long restored = removed & ((c & 1) != 0 ? plane0 : ~plane0)
+							& ((c & 2) != 0 ? plane1 : ~plane1)
+							& ((c & 4) != 0 ? plane2 : ~plane2);
+					colors[c] |= restored;
+					hash ^= Zobrist.cells(c, restored);
 				}
-				ballPointer += boardSize;
-			}
-			while (freeSlotPointer != ballPointer) {
-				board[freeSlotPointer].remove();
-				freeSlotPointer += boardSize;
-			}
-		}
-		
-		//move down (21-27)
-		if (move >= 21 && move <= 27) {
-			freeSlotPointer = boardSize * (boardSize - 1) + (move - 21);
-			ballPointer = boardSize * (boardSize - 1) + (move - 21);
-			for (int i = 0; i < boardSize; i++) {
-				if (board[ballPointer].getColor() != 0) {
-					board[freeSlotPointer].setColor(board[ballPointer].getColor());
-					freeSlotPointer -= boardSize;
+				occupied |= removed;
+			} else {
+				int move = (int) (entry >>> 1) & 0x1F;
+				long previous = entry >>> 6;
+				boolean row = move < 14;
+				int line = move % 7;
+				long occ = 0;
+				for (int c = 1; c < colors.length; c++) {
+					long bits = (previous >>> ((c - 1) * 7)) & LINE;
+					hash ^= Zobrist.cells(c, setLine(0, row, line, bits ^ getLine(colors[c], row, line)));
+					colors[c] = setLine(colors[c], row, line, bits);
+					occ |= bits;
 				}
-				ballPointer -= boardSize;
-			}
-			while (freeSlotPointer != ballPointer) {
-				board[freeSlotPointer].remove();
-				freeSlotPointer -= boardSize;
+				occupied = setLine(occupied, row, line, occ);
+				return;
 			}
 		}
 	}
-
+	
+	/**
+	 * Clears the undo journal, the current position can no longer be reverted.
+	 */
+	public void clearJournal() {
+		journalSize = 0;
+	}
+	
+	/**
+	 * Adds an entry to the undo journal, growing it if needed.
+	 * @param entry
+	 */
+	private void push(long entry) {
+		if (journalSize == journal.length) {
+			journal = Arrays.copyOf(journal, journal.length * 2);
+		}
+		journal[journalSize++] = entry;
+	}
+	
 	
 	/**
 	 * Performs 2 moves given a double move.
@@ -226,62 +350,158 @@ public class Board {
 		doMove(move.y);
 	}
 	
+	/**
+	 * Returns a bitboard of all balls that are placed next to a ball of the same color.
+	 * @return bitboard of neighbouring balls
+	 */
+	public long getNeighbourMask() {
+		long found = 0;
+		for (int c = 1; c < colors.length; c++) {
+			long m = colors[c];
+			long horizontal = m & (m >>> 1) & NOT_LAST_COLUMN;
+			long vertical = m & (m >>> 7);
+			found |= horizontal | (horizontal << 1) | vertical | (vertical << 7);
+		}
+		return found;
+	}
+	
+	/**
+	 * Returns a bitboard of the balls next to a ball of the same color,
+	 * only considering pairs in which at least one ball lies on a changed cell.
+	 * Assumes the board had no neighbouring balls of the same color before the cells changed,
+	 * which holds after every move once the neighbours have been removed.
+	 * @param changed bitboard of the cells changed since the last check
+	 * @return bitboard of neighbouring balls
+	 */
+	public long getNeighbourMask(long changed) {
+		long horizontalPairs = changed | (changed >>> 1);
+		long verticalPairs = changed | (changed >>> 7);
+		long found = 0;
+		for (int c = 1; c < colors.length; c++) {
+			long m = colors[c];
+			long horizontal = m & (m >>> 1) & NOT_LAST_COLUMN & horizontalPairs;
+			long vertical = m & (m >>> 7) & verticalPairs;
+			found |= horizontal | (horizontal << 1) | vertical | (vertical << 7);
+		}
+		return found;
+	}
+	
+	/**
+	 * Returns a bitboard of the cells in the row or column changed by a move.
+	 * @param move
+	 * @return bitboard of the line
+	 */
+	public static long getLineMask(int move) {
+		if (move < 14) {
+			return LINE << (move % 7 * 7);
+		}
+		return FIRST_COLUMN << (move % 7);
+	}
+	
+	/**
+	 * Removes all balls marked in the bitboard from the board.
+	 * @param mask bitboard of the balls to remove
+	 */
+	public void removeBalls(long mask) {
+		mask &= occupied;
+		if (mask == 0) {
+			return;
+		}
+		long plane0 = 0;
+		long plane1 = 0;
+		long plane2 = 0;
+		for (int c = 1; c < colors.length; c++) {
+			long removed = colors[c] & mask;
+			hash ^= Zobrist.cells(c, removed);
+			plane0 |= (c & 1) != 0 ? removed : 0;
+			plane1 |= (c & 2) != 0 ? removed : 0;
+			plane2 |= (c & 4) != 0 ? removed : 0;
+			colors[c] &= ~mask;
+		}
+		occupied &= ~mask;
+		push(plane0);
+		push(plane1);
+		push(plane2);
+		push(REMOVAL);
+	}
+	
 	/**
 	 * Returns a list of all balls that are placed next to each other and have the same color.
+	 * Every ball is contained in the list once.
 	 * @param b is the board on which it checks for neighbors
 	 * @return Ball list
 	 */
 	public List<Ball> checkNeighbours(Board b) {
 		List<Ball> sameNeighbours = new ArrayList<Ball>();
-		for (int i = 0; i < b.boardSize; i++) {
-			for (int o = 0; o < b.boardSize; o++) {
-				if (i != b.boardSize - 1 && o != b.boardSize - 1) {
-					Ball ball = b.board[o + b.boardSize * i].getBall();
-					if (ball.getColor() != 0) {
-						Ball neighbourRight = b.board[1 + o + b.boardSize * i].getBall();
-						Ball neighbourDown = b.board[o + b.boardSize * (i + 1)].getBall();
-						if (ball.getColor() == neighbourRight.getColor()) {
-							sameNeighbours.add(ball);
-							sameNeighbours.add(neighbourRight);
-						}
-						if (ball.getColor() == neighbourDown.getColor()) {
-							sameNeighbours.add(ball);
-							sameNeighbours.add(neighbourDown);
-						}
-					}
-				}
-				if (i == b.boardSize - 1 && o != b.boardSize - 1) {
-					Ball ball = b.board[o + b.boardSize * i].getBall();
-					if (ball.getColor() != 0) {
-						Ball neighbourRight = b.board[1 + o + b.boardSize * i].getBall();
-						if (ball.getColor() == neighbourRight.getColor()) {
-							sameNeighbours.add(ball);
-							sameNeighbours.add(neighbourRight);
-						}
-					}
-				}
-				if (i != b.boardSize - 1 && o == b.boardSize - 1) {
-					Ball ball = b.board[o + b.boardSize * i].getBall();
-					if (ball.getColor() != 0) {
-						Ball neighbourDown = b.board[o + b.boardSize * (i + 1)].getBall();
-						if (ball.getColor() == neighbourDown.getColor()) {
-							sameNeighbours.add(ball);
-							sameNeighbours.add(neighbourDown);
-						}
-					}
-				}
-			}
+		long found = b.getNeighbourMask();
+		while (found != 0) {
+			sameNeighbours.add(new Ball(b, Long.numberOfTrailingZeros(found)));
+			found &= found - 1;
 		}
 		return sameNeighbours;
 	}
-
+	
 	/**
 	 * fills a given board with balls of color 0 (invisible).
 	 * @param b
 	 */
 	public void fillEmpty(Board b) {
-		for (int i = 0; i < b.board.length; i++) {
-			b.board[i] = new Ball(0);
+		for (int c = 0; c < b.colors.length; c++) {
+			b.colors[c] = 0;
+		}
+		b.occupied = 0;
+		b.hash = 0;
+		b.journalSize = 0;
+	}
+	
+	/**
+	 * Reads a row or column of a bitboard into the lowest 7 bits.
+	 * Bit 0 is the leftmost cell of a row or the top cell of a column.
+	 * @param bits bitboard
+	 * @param row true for a row, false for a column
+	 * @param line index of the row or column
+	 * @return line bits
+	 */
+	static long getLine(long bits, boolean row, int line) {
+		if (row) {
+			return (bits >>> (line * 7)) & LINE;
+		}
+		return ((((bits >>> line) & FIRST_COLUMN) * COLUMN_GATHER) >>> 42) & LINE;
+	}
+	
+	/**
+	 * Writes the lowest 7 bits into a row or column of a bitboard.
+	 * @param bits bitboard
+	 * @param row true for a row, false for a column
+	 * @param line index of the row or column
+	 * @param value line bits
+	 * @return the new bitboard
+	 */
+	static long setLine(long bits, boolean row, int line, long value) {
+		if (row) {
+			return (bits & ~(LINE << (line * 7))) | (value << (line * 7));
+		}
+		return (bits & ~(FIRST_COLUMN << line)) | (COLUMN_SPREAD[(int) value] << line);
+	}
+	
+	/**
+	 * Packs the bits of value selected by mask into the lowest bits, keeping their order.
+	 * Used to fill the compaction tables.
+	 * @param value line bits
+	 * @param mask occupied cells of the line
+	 * @return packed bits
+	 */
+	static long compact(long value, long mask) {
+		long packed = 0;
+		int target = 0;
+		while (mask != 0) {
+			long lowest = mask & -mask;
+			if ((value & lowest) != 0) {
+				packed |= 1L << target;
+			}
+			target++;
+			mask ^= lowest;
 		}
+		return packed;
 	}
 }
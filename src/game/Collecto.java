@@ -1,6 +1,5 @@
 package game;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import communication.server.ClientHandler;
@@ -53,14 +52,7 @@ public class Collecto {
 			if (testMove(move)) {
 				board.doMove(move);
 				player1Turn = !player1Turn;
-				for (Ball b : board.checkNeighbours(board)) {
-					b.remove();
-					if (player1Turn) {
-						ballKeeper.addBall(b, player1.getUserName());
-					} else {
-						ballKeeper.addBall(b, player2.getUserName());
-					}
-				}
+				collect(Board.getLineMask(move));
 				return true;
 			}
 		}
@@ -79,14 +71,7 @@ public class Collecto {
 			if (testMove(move)) {
 				board.doMove(move);
 				player1Turn = !player1Turn;
-				for (Ball b : board.checkNeighbours(board)) {
-					b.remove();
-					if (player1Turn) {
-						ballKeeper.addBall(b, player1.getUserName());
-					} else {
-						ballKeeper.addBall(b, player2.getUserName());
-					}
-				}
+				collect(Board.getLineMask(move.x) | Board.getLineMask(move.y));
 				return true;
 			}
 		}
@@ -99,12 +84,13 @@ public class Collecto {
 	 * @return move legality
 	 */
 	boolean testMove(int move) {
-		Board testBoard = board.getCopy();
-		testBoard.doMove(move);
-		if (!board.checkNeighbours(testBoard).isEmpty()) {
-			return true;
+		if (move < 0 || move >= board.boardSize * 4) {
+			return false;
 		}
-		return false;
+		board.doMove(move);
+		boolean legal = board.getNeighbourMask(Board.getLineMask(move)) != 0;
+		board.undoMove();
+		return legal;
 	}
 	
 	/**
@@ -113,13 +99,30 @@ public class Collecto {
 	 * @return move legality
 	 */
 	boolean testMove(Tuple<Integer, Integer> move) {
-		Board testBoard = board.getCopy();
-		testBoard.doMove(move.x);
-		testBoard.doMove(move.y);
-		if (!board.checkNeighbours(testBoard).isEmpty()) {
-			return true;
+		if (move.x < 0 || move.x >= board.boardSize * 4 || move.y < 0 || move.y >= board.boardSize * 4) {
+			return false;
 		}
-		return false;
+		board.doMove(move.x);
+		board.doMove(move.y);
+		boolean legal = board.getNeighbourMask(Board.getLineMask(move.x) | Board.getLineMask(move.y)) != 0;
+		board.undoMove();
+		board.undoMove();
+		return legal;
+	}
+	
+	/**
+	 * Removes the balls that became neighbours of a ball with the same color
+	 * and adds them to the BallKeeper.
+	 * @param changed bitboard of the cells changed by the last move
+	 */
+	private void collect(long changed) {
+		long found = board.getNeighbourMask(changed);
+		if (player1Turn) {
+			ballKeeper.addBalls(BallKeeper.PLAYER1, board, found);
+		} else {
+			ballKeeper.addBalls(BallKeeper.PLAYER2, board, found);
+		}
+		board.removeBalls(found);
 	}
 	
 	/**
@@ -127,18 +130,7 @@ public class Collecto {
 	 * @return List of moves.
 	 */
 	public List<Integer> getSingleMoves() {
-		List<Integer> validMoves = new ArrayList<Integer>();
-		
-		
-		for (int i = 0; i < board.boardSize * 4; i++) {
-			Board testBoard = board.getCopy();
-			testBoard.doMove(i);
-			if (!board.checkNeighbours(testBoard).isEmpty()) {
-				validMoves.add(i);
-			}
-		}
-		
-		return validMoves;
+		return MoveGenerator.toList(MoveGenerator.getSingleMoves(board));
 	}
 	
 	/**
@@ -146,21 +138,7 @@ public class Collecto {
 	 * @return List of moves.
 	 */
 	List<Tuple<Integer, Integer>> getDoubleMoves() {
-		List<Tuple<Integer, Integer>> validMoves = new ArrayList<Tuple<Integer, Integer>>();
-		
-		for (int i = 0; i < board.boardSize * 4; i++) {
-			Board testBoard1 = board.getCopy();
-			testBoard1.doMove(i);
-			for (int o = 0; o < board.boardSize * 4; o++) {
-				Board testBoard2 = testBoard1.getCopy();
-				testBoard2.doMove(o);
-				if (!board.checkNeighbours(testBoard2).isEmpty()) {
-					validMoves.add(new Tuple<Integer, Integer>(i, o));
-				}
-			}
-		}
-		
-		return validMoves;
+		return MoveGenerator.toList(MoveGenerator.getDoubleMoves(board));
 	}
 	
 	/**
@@ -168,10 +146,7 @@ public class Collecto {
 	 * @return true if now moves available
 	 */
 	public boolean checkGameOver() {
-		if (getSingleMoves().isEmpty() && getDoubleMoves().isEmpty()) {
-			return true;
-		}
-		return false;
+		return MoveGenerator.isGameOver(board);
 	}
 	
 	/**
@@ -0,0 +1,302 @@
+package game;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * Generates the legal moves of a board.
+ * Single moves are returned as a 28 bit mask, bit i set meaning move i is legal.
+ * Double moves are returned as a 784 bit set stored in longs,
+ * bit (first * 28 + second) set meaning the double move (first, second) is legal.
+ * Moves are tried on the board itself and reverted, so no copies are made.
+ * The board is expected to have no neighbouring balls of the same color.
+ */
+
+public final class MoveGenerator {
+	/** Number of single moves. */
+	public static final int MOVES = 28;
+	/** Number of double moves. */
+	public static final int DOUBLE_MOVES = MOVES * MOVES;
+	/** Number of longs needed to store all double moves. */
+	public static final int DOUBLE_MOVE_WORDS = (DOUBLE_MOVES + 63) / 64;
+	/** Number of ball colors. */
+	private static final int COLORS = 6;
+	
+	private MoveGenerator() {
+	}
+	
+	/**
+	 * Returns the legal single moves of the board.
+	 * @param board
+	 * @return mask of moves
+	 */
+	public static int getSingleMoves(Board board) {
+		int moves = 0;
+		for (int i = 0; i < MOVES; i++) {
+			board.doMove(i);
+			if (board.getNeighbourMask(Board.getLineMask(i)) != 0) {
+				moves |= 1 << i;
+			}
+			board.undoMove();
+		}
+		return moves;
+	}
+	
+	/**
+	 * Returns the legal double moves of the board.
+	 * @param board
+	 * @return set of double moves
+	 */
+	public static long[] getDoubleMoves(Board board) {
+		long[] moves = new long[DOUBLE_MOVE_WORDS];
+		getDoubleMoves(board, moves);
+		return moves;
+	}
+	
+	/**
+	 * Stores the legal double moves of the board in the given array.
+	 * First moves that lead to the same board, like moves that do not change it at all,
+	 * share their second moves: every distinct board is expanded only once.
+	 * @param board
+	 * @param moves array of DOUBLE_MOVE_WORDS longs, overwritten
+	 */
+	public static void getDoubleMoves(Board board, long[] moves) {
+		for (int w = 0; w < DOUBLE_MOVE_WORDS; w++) {
+			moves[w] = 0;
+		}
+		long[] masks = new long[MOVES * COLORS];
+		for (int i = 0; i < MOVES; i++) {
+			board.doMove(i);
+			int same = findSame(board, masks, i);
+			if (same >= 0) {
+				setSecondMoves(moves, i, getSecondMoves(moves, same));
+			} else {
+				long firstLine = Board.getLineMask(i);
+				for (int o = 0; o < MOVES; o++) {
+					board.doMove(o);
+					if (board.getNeighbourMask(firstLine | Board.getLineMask(o)) != 0) {
+						int index = i * MOVES + o;
+						moves[index >>> 6] |= 1L << index;
+					}
+					board.undoMove();
+				}
+			}
+			board.undoMove();
+		}
+	}
+	
+	/**
+	 * Returns whether the board has at least one legal double move.
+	 * Stops at the first one found, and skips first moves leading to a board already tried.
+	 * @param board
+	 * @return true if a double move exists
+	 */
+	public static boolean hasDoubleMove(Board board) {
+		long[] masks = new long[MOVES * COLORS];
+		for (int i = 0; i < MOVES; i++) {
+			board.doMove(i);
+			if (findSame(board, masks, i) < 0) {
+				long firstLine = Board.getLineMask(i);
+				for (int o = 0; o < MOVES; o++) {
+					board.doMove(o);
+					boolean legal = board.getNeighbourMask(firstLine | Board.getLineMask(o)) != 0;
+					board.undoMove();
+					if (legal) {
+						board.undoMove();
+						return true;
+					}
+				}
+			}
+			board.undoMove();
+		}
+		return false;
+	}
+	
+	/**
+	 * Records the board reached by first move i and returns an earlier first move
+	 * that reached the same board, -1 if there is none.
+	 * Boards are compared by the cells of every color, so they are only the same if they are equal.
+	 * @param board after first move i
+	 * @param masks the cells of every color of the boards reached by the first moves, COLORS per move
+	 * @param i first move
+	 * @return earlier first move
+	 */
+	private static int findSame(Board board, long[] masks, int i) {
+		int base = i * COLORS;
+		for (int c = 0; c < COLORS; c++) {
+			masks[base + c] = board.getColorMask(c + 1);
+		}
+		for (int j = 0; j < i; j++) {
+			int other = j * COLORS;
+			int c = 0;
+			while (c < COLORS && masks[other + c] == masks[base + c]) {
+				c++;
+			}
+			if (c == COLORS) {
+				return j;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Returns the mask of second moves stored for a first move.
+	 * @param moves set of double moves
+	 * @param first move
+	 * @return mask of second moves
+	 */
+	public static int getSecondMoves(long[] moves, int first) {
+		int index = first * MOVES;
+		long bits = moves[index >>> 6] >>> index;
+		int shift = 64 - (index & 63);
+		if (shift < MOVES) {
+			bits |= moves[(index >>> 6) + 1] << shift;
+		}
+		return (int) bits & ((1 << MOVES) - 1);
+	}
+	
+	/**
+	 * Adds a mask of second moves for a first move.
+	 * @param moves set of double moves
+	 * @param first move
+	 * @param seconds mask of second moves
+	 */
+	static void setSecondMoves(long[] moves, int first, int seconds) {
+		int index = first * MOVES;
+		moves[index >>> 6] |= (long) seconds << index;
+		int shift = 64 - (index & 63);
+		if (shift < MOVES) {
+			moves[(index >>> 6) + 1] |= (long) seconds >>> shift;
+		}
+	}
+	
+	/**
+	 * Returns whether no single or double move is left on the board.
+	 * @param board
+	 * @return true if the game is over
+	 */
+	public static boolean isGameOver(Board board) {
+		return getSingleMoves(board) == 0 && !hasDoubleMove(board);
+	}
+	
+	/**
+	 * Returns the index of the first double move at or after from, -1 if there is none.
+	 * @param moves set of double moves
+	 * @param from index to start at
+	 * @return double move index
+	 */
+	public static int nextDoubleMove(long[] moves, int from) {
+		int w = from >>> 6;
+		if (w >= moves.length) {
+			return -1;
+		}
+		long bits = moves[w] & (-1L << from);
+		while (bits == 0) {
+			if (++w == moves.length) {
+				return -1;
+			}
+			bits = moves[w];
+		}
+		return w * 64 + Long.numberOfTrailingZeros(bits);
+	}
+	
+	/**
+	 * Returns whether the set holds no double move.
+	 * @param moves set of double moves
+	 * @return true if empty
+	 */
+	public static boolean isEmpty(long[] moves) {
+		for (long w : moves) {
+			if (w != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the number of double moves in the set.
+	 * @param moves set of double moves
+	 * @return count
+	 */
+	public static int countDoubleMoves(long[] moves) {
+		int count = 0;
+		for (long w : moves) {
+			count += Long.bitCount(w);
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the first move of a double move index.
+	 * @param index double move index
+	 * @return first move
+	 */
+	public static int first(int index) {
+		return index / MOVES;
+	}
+	
+	/**
+	 * Returns the second move of a double move index.
+	 * @param index double move index
+	 * @return second move
+	 */
+	public static int second(int index) {
+		return index % MOVES;
+	}
+	
+	/**
+	 * Returns the n-th move (counting from 0) of a mask of single moves.
+	 * @param moves mask of moves
+	 * @param n
+	 * @return move
+	 */
+	public static int nthMove(int moves, int n) {
+		for (int i = 0; i < n; i++) {
+			moves &= moves - 1;
+		}
+		return Integer.numberOfTrailingZeros(moves);
+	}
+	
+	/**
+	 * Returns the n-th double move index (counting from 0) of a set of double moves.
+	 * @param moves set of double moves
+	 * @param n
+	 * @return double move index
+	 */
+	public static int nthDoubleMove(long[] moves, int n) {
+		int index = nextDoubleMove(moves, 0);
+		for (int i = 0; i < n; i++) {
+			index = nextDoubleMove(moves, index + 1);
+		}
+		return index;
+	}
+	
+	/**
+	 * Converts a mask of single moves to a list.
+	 * @param moves mask of moves
+	 * @return List of moves.
+	 */
+	public static List<Integer> toList(int moves) {
+		List<Integer> list = new ArrayList<Integer>();
+		for (; moves != 0; moves &= moves - 1) {
+			list.add(Integer.numberOfTrailingZeros(moves));
+		}
+		return list;
+	}
+	
+	/**
+	 * Converts a set of double moves to a list.
+	 * @param moves set of double moves
+	 * @return List of moves.
+	 */
+	public static List<Tuple<Integer, Integer>> toList(long[] moves) {
+		List<Tuple<Integer, Integer>> list = new ArrayList<Tuple<Integer, Integer>>();
+		for (int m = nextDoubleMove(moves, 0); m >= 0; m = nextDoubleMove(moves, m + 1)) {
+			list.add(new Tuple<Integer, Integer>(first(m), second(m)));
+		}
+		return list;
+	}
+}
@@ -0,0 +1,233 @@
+package game;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * An immutable, packed copy of a position.
+ * The 49 cells are stored with 3 bits each, 21 cells per long.
+ * The collected balls of both players are stored with 5 bits per color,
+ * followed by a single bit for the side to move.
+ */
+
+public final class PositionKey implements Comparable<PositionKey> {
+	/** Number of cells packed into one long. */
+	static final int CELLS_PER_LONG = 21;
+	/** Number of bits used for a single counter. */
+	static final int COUNT_BITS = 5;
+	/** Bit of the state marking that player 2 is to move. */
+	static final int SIDE_BIT = 2 * 6 * COUNT_BITS;
+	
+	/** Cells 0 - 20. */
+	private final long cells0;
+	/** Cells 21 - 41. */
+	private final long cells1;
+	/** Cells 42 - 48. */
+	private final long cells2;
+	/** Counters of both players and the side to move. */
+	private final long state;
+	
+	/**
+	 * Constructs a key from its packed parts.
+	 * @param cells0
+	 * @param cells1
+	 * @param cells2
+	 * @param state
+	 */
+	public PositionKey(long cells0, long cells1, long cells2, long state) {
+		this.cells0 = cells0;
+		this.cells1 = cells1;
+		this.cells2 = cells2;
+		this.state = state;
+	}
+	
+	/**
+	 * Returns the key of a position.
+	 * @param board
+	 * @param ballKeeper the collected balls, may be null
+	 * @param sideToMove index of the player to move
+	 * @return key
+	 */
+	public static PositionKey of(Board board, BallKeeper ballKeeper, int sideToMove) {
+		long[] cells = new long[3];
+		for (int c = 1; c < 7; c++) {
+			long mask = board.getColorMask(c);
+			while (mask != 0) {
+				int i = Long.numberOfTrailingZeros(mask);
+				cells[i / CELLS_PER_LONG] |= (long) c << (i % CELLS_PER_LONG * 3);
+				mask &= mask - 1;
+			}
+		}
+		long state = 0;
+		if (ballKeeper != null) {
+			for (int p = 0; p < 2; p++) {
+				for (int c = 1; c < 7; c++) {
+					long count = Math.min(ballKeeper.getNumOfBalls(p, c), (1 << COUNT_BITS) - 1);
+					state |= count << ((p * 6 + c - 1) * COUNT_BITS);
+				}
+			}
+		}
+		if (sideToMove == BallKeeper.PLAYER2) {
+			state |= 1L << SIDE_BIT;
+		}
+		return new PositionKey(cells[0], cells[1], cells[2], state);
+	}
+	
+	/**
+	 * Returns the key of a board with no collected balls and player 1 to move.
+	 * @param board
+	 * @return key
+	 */
+	public static PositionKey of(Board board) {
+		return of(board, null, BallKeeper.PLAYER1);
+	}
+	
+	/**
+	 * Returns the key of a board string with no collected balls and player 1 to move.
+	 * @param boardString 49 digits as used by the server
+	 * @return key
+	 */
+	public static PositionKey fromString(String boardString) {
+		long[] cells = new long[3];
+		for (int i = 0; i < boardString.length(); i++) {
+			long c = Character.getNumericValue(boardString.charAt(i));
+			cells[i / CELLS_PER_LONG] |= c << (i % CELLS_PER_LONG * 3);
+		}
+		return new PositionKey(cells[0], cells[1], cells[2], 0);
+	}
+	
+	/**
+	 * Returns the color of the ball on the given cell, 0 if the cell is empty.
+	 * @param index of the cell
+	 * @return color
+	 */
+	public int getColor(int index) {
+		return (int) (getCells(index / CELLS_PER_LONG) >>> (index % CELLS_PER_LONG * 3)) & 7;
+	}
+	
+	/**
+	 * Returns the number of balls of one color collected by the given player.
+	 * @param player index
+	 * @param color
+	 * @return count
+	 */
+	public int getCount(int player, int color) {
+		return (int) (state >>> ((player * 6 + color - 1) * COUNT_BITS)) & ((1 << COUNT_BITS) - 1);
+	}
+	
+	/**
+	 * Returns the index of the player to move.
+	 * @return side to move
+	 */
+	public int getSideToMove() {
+		return (state >>> SIDE_BIT & 1) == 0 ? BallKeeper.PLAYER1 : BallKeeper.PLAYER2;
+	}
+	
+	/**
+	 * Returns one of the three longs holding the cells.
+	 * @param part 0, 1 or 2
+	 * @return packed cells
+	 */
+	public long getCells(int part) {
+		if (part == 0) {
+			return cells0;
+		}
+		return part == 1 ? cells1 : cells2;
+	}
+	
+	/**
+	 * Returns the long holding the counters and the side to move.
+	 * @return packed state
+	 */
+	public long getState() {
+		return state;
+	}
+	
+	/**
+	 * Creates a new board holding the cells of this key.
+	 * @return board
+	 */
+	public Board toBoard() {
+		Board board = new Board();
+		for (int i = 0; i < board.boardSize * board.boardSize; i++) {
+			int color = getColor(i);
+			if (color != 0) {
+				board.setColor(i, color);
+			}
+		}
+		return board;
+	}
+	
+	/**
+	 * Creates a new BallKeeper holding the counters of this key.
+	 * @param player1 name of player 1
+	 * @param player2 name of player 2
+	 * @return ballKeeper
+	 */
+	public BallKeeper toBallKeeper(String player1, String player2) {
+		BallKeeper ballKeeper = new BallKeeper(player1, player2);
+		for (int p = 0; p < 2; p++) {
+			for (int c = 1; c < 7; c++) {
+				int count = getCount(p, c);
+				if (count != 0) {
+					ballKeeper.addBalls(p, c, count);
+				}
+			}
+		}
+		return ballKeeper;
+	}
+	
+	/**
+	 * Returns the board string of this key, 49 digits as used by the server.
+	 * @return board string
+	 */
+	@Override
+	public String toString() {
+		char[] s = new char[49];
+		for (int i = 0; i < s.length; i++) {
+			s[i] = (char) ('0' + getColor(i));
+		}
+		return new String(s);
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (!(o instanceof PositionKey)) {
+			return false;
+		}
+		PositionKey other = (PositionKey) o;
+		return cells0 == other.cells0 && cells1 == other.cells1
+				&& cells2 == other.cells2 && state == other.state;
+	}
+	
+	@Override
+	public int hashCode() {
+		long h = cells0 * 0x9E3779B97F4A7C15L;
+		h = (h ^ cells1) * 0x9E3779B97F4A7C15L;
+		h = (h ^ cells2) * 0x9E3779B97F4A7C15L;
+		h = (h ^ state) * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+	
+	/**
+	 * Orders keys by their packed longs, cells first.
+	 * @param other
+	 * @return comparison
+	 */
+	@Override
+	public int compareTo(PositionKey other) {
+		int result = Long.compare(cells0, other.cells0);
+		if (result == 0) {
+			result = Long.compare(cells1, other.cells1);
+		}
+		if (result == 0) {
+			result = Long.compare(cells2, other.cells2);
+		}
+		if (result == 0) {
+			result = Long.compare(state, other.state);
+		}
+		return result;
+	}
+}
@@ -0,0 +1,308 @@
+package game;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * Maps a position onto its canonical representative.
+ * The board has 8 symmetries (rotations and reflections) and the 6 colors are interchangeable,
+ * so positions that only differ by one of these get the same canonical key.
+ * The canonical key is the smallest key over all 8 transforms,
+ * with the colors numbered in the order they first appear on the transformed board.
+ * Colors no longer on the board are numbered after these, ordered by the balls collected of them.
+ * An instance remembers the transform and colors used, so moves can be mapped to and from the canonical frame.
+ */
+
+public final class Symmetry {
+	/** Number of transforms of the board. */
+	public static final int TRANSFORMS = 8;
+	/** Length of the boards side. */
+	static final int SIZE = 7;
+	/** Number of cells on the board. */
+	static final int CELLS = SIZE * SIZE;
+	/** Number of single moves. */
+	static final int MOVES = SIZE * 4;
+	
+	/** Cell a cell is mapped to by each transform, [transform][cell]. */
+	static final int[][] CELL_MAP = new int[TRANSFORMS][CELLS];
+	/** Move a move is mapped to by each transform, [transform][move]. */
+	static final int[][] MOVE_MAP = new int[TRANSFORMS][MOVES];
+	/** Transform undoing each transform. */
+	static final int[] INVERSE = new int[TRANSFORMS];
+	
+	static {
+		int n = SIZE - 1;
+		for (int t = 0; t < TRANSFORMS; t++) {
+			for (int r = 0; r < SIZE; r++) {
+				for (int c = 0; c < SIZE; c++) {
+					int row;
+					int col;
+					switch (t) {
+						case 1: row = c; col = n - r; break;
+						case 2: row = n - r; col = n - c; break;
+						case 3: row = n - c; col = r; break;
+						case 4: row = r; col = n - c; break;
+						case 5: row = n - r; col = c; break;
+						case 6: row = c; col = r; break;
+						case 7: row = n - c; col = n - r; break;
+						default: row = r; col = c; break;
+					}
+					CELL_MAP[t][r * SIZE + c] = row * SIZE + col;
+				}
+			}
+			for (int m = 0; m < MOVES; m++) {
+				int line = m % SIZE;
+				boolean row = m < 2 * SIZE;
+				boolean towardsEnd = (m / SIZE) % 2 == 1;
+				//the cell the balls move to and the cell at the other end of the line
+				int to = row ? line * SIZE + (towardsEnd ? n : 0) : (towardsEnd ? n : 0) * SIZE + line;
+				int from = row ? line * SIZE + (towardsEnd ? 0 : n) : (towardsEnd ? 0 : n) * SIZE + line;
+				to = CELL_MAP[t][to];
+				from = CELL_MAP[t][from];
+				if (to / SIZE == from / SIZE) {
+					MOVE_MAP[t][m] = (to % SIZE == n ? SIZE : 0) + to / SIZE;
+				} else {
+					MOVE_MAP[t][m] = (to / SIZE == n ? 3 * SIZE : 2 * SIZE) + to % SIZE;
+				}
+			}
+		}
+		for (int t = 0; t < TRANSFORMS; t++) {
+			for (int u = 0; u < TRANSFORMS; u++) {
+				if (CELL_MAP[u][CELL_MAP[t][1]] == 1 && CELL_MAP[u][CELL_MAP[t][SIZE]] == SIZE) {
+					INVERSE[t] = u;
+				}
+			}
+		}
+	}
+	
+	/** The canonical key of the position. */
+	private final PositionKey key;
+	/** The transform mapping the position onto the canonical key. */
+	private final int transform;
+	/** Canonical color of every color, index 0 is unused. */
+	private final int[] colorMap;
+	
+	/**
+	 * Constructs the result of a canonicalisation.
+	 * @param key
+	 * @param transform
+	 * @param colorMap
+	 */
+	private Symmetry(PositionKey key, int transform, int[] colorMap) {
+		this.key = key;
+		this.transform = transform;
+		this.colorMap = colorMap;
+	}
+	
+	/**
+	 * Canonicalises a position.
+	 * @param board
+	 * @param ballKeeper the collected balls, may be null
+	 * @param sideToMove index of the player to move
+	 * @return symmetry mapping the position onto its canonical key
+	 */
+	public static Symmetry of(Board board, BallKeeper ballKeeper, int sideToMove) {
+		int[] cells = new int[CELLS];
+		boolean[] onBoard = new boolean[7];
+		for (int c = 1; c < 7; c++) {
+			long mask = board.getColorMask(c);
+			onBoard[c] = mask != 0;
+			while (mask != 0) {
+				cells[Long.numberOfTrailingZeros(mask)] = c;
+				mask &= mask - 1;
+			}
+		}
+		int[][] counts = new int[2][7];
+		if (ballKeeper != null) {
+			for (int p = 0; p < 2; p++) {
+				for (int c = 1; c < 7; c++) {
+					counts[p][c] = ballKeeper.getNumOfBalls(p, c);
+				}
+			}
+		}
+		//colors not on the board, ordered by their counts
+		int[] absent = new int[6];
+		int numAbsent = 0;
+		for (int c = 1; c < 7; c++) {
+			if (!onBoard[c]) {
+				int i = numAbsent++;
+				while (i > 0 && compareCounts(counts, absent[i - 1], c) > 0) {
+					absent[i] = absent[i - 1];
+					i--;
+				}
+				absent[i] = c;
+			}
+		}
+		
+		PositionKey best = null;
+		int bestTransform = 0;
+		int[] bestMap = null;
+		int[] transformed = new int[CELLS];
+		for (int t = 0; t < TRANSFORMS; t++) {
+			for (int i = 0; i < CELLS; i++) {
+				transformed[CELL_MAP[t][i]] = cells[i];
+			}
+			int[] map = new int[7];
+			int next = 1;
+			for (int i = 0; i < CELLS; i++) {
+				int c = transformed[i];
+				if (c != 0 && map[c] == 0) {
+					map[c] = next++;
+				}
+			}
+			for (int i = 0; i < numAbsent; i++) {
+				map[absent[i]] = next++;
+			}
+			PositionKey key = pack(transformed, map, counts, sideToMove);
+			if (best == null || key.compareTo(best) < 0) {
+				best = key;
+				bestTransform = t;
+				bestMap = map;
+			}
+		}
+		return new Symmetry(best, bestTransform, bestMap);
+	}
+	
+	/**
+	 * Returns the canonical key of a position.
+	 * @param board
+	 * @param ballKeeper the collected balls, may be null
+	 * @param sideToMove index of the player to move
+	 * @return canonical key
+	 */
+	public static PositionKey canonicalKey(Board board, BallKeeper ballKeeper, int sideToMove) {
+		return of(board, ballKeeper, sideToMove).getKey();
+	}
+	
+	/**
+	 * Compares two colors by the balls both players collected of them.
+	 * @param counts [player][color]
+	 * @param a color
+	 * @param b color
+	 * @return comparison
+	 */
+	private static int compareCounts(int[][] counts, int a, int b) {
+		int result = Integer.compare(counts[0][a], counts[0][b]);
+		if (result == 0) {
+			result = Integer.compare(counts[1][a], counts[1][b]);
+		}
+		return result;
+	}
+	
+	/**
+	 * Packs a transformed and relabelled position into a key.
+	 * @param cells colors of the transformed board
+	 * @param map canonical color of every color
+	 * @param counts [player][color]
+	 * @param sideToMove
+	 * @return key
+	 */
+	private static PositionKey pack(int[] cells, int[] map, int[][] counts, int sideToMove) {
+		long[] parts = new long[3];
+		for (int i = 0; i < CELLS; i++) {
+			if (cells[i] != 0) {
+				parts[i / PositionKey.CELLS_PER_LONG] |= (long) map[cells[i]] << (i % PositionKey.CELLS_PER_LONG * 3);
+			}
+		}
+		long state = 0;
+		for (int p = 0; p < 2; p++) {
+			for (int c = 1; c < 7; c++) {
+				long count = Math.min(counts[p][c], (1 << PositionKey.COUNT_BITS) - 1);
+				state |= count << ((p * 6 + map[c] - 1) * PositionKey.COUNT_BITS);
+			}
+		}
+		if (sideToMove == BallKeeper.PLAYER2) {
+			state |= 1L << PositionKey.SIDE_BIT;
+		}
+		return new PositionKey(parts[0], parts[1], parts[2], state);
+	}
+	
+	/**
+	 * Returns the cell a cell is mapped to by a transform.
+	 * @param transform
+	 * @param index of the cell
+	 * @return index of the mapped cell
+	 */
+	public static int transformCell(int transform, int index) {
+		return CELL_MAP[transform][index];
+	}
+	
+	/**
+	 * Returns the move a move is mapped to by a transform.
+	 * @param transform
+	 * @param move
+	 * @return mapped move
+	 */
+	public static int transformMove(int transform, int move) {
+		return MOVE_MAP[transform][move];
+	}
+	
+	/**
+	 * Returns the transform undoing a transform.
+	 * @param transform
+	 * @return inverse transform
+	 */
+	public static int inverse(int transform) {
+		return INVERSE[transform];
+	}
+	
+	/**
+	 * Returns the canonical key of the position.
+	 * @return key
+	 */
+	public PositionKey getKey() {
+		return key;
+	}
+	
+	/**
+	 * Returns the transform mapping the position onto its canonical key.
+	 * @return transform
+	 */
+	public int getTransform() {
+		return transform;
+	}
+	
+	/**
+	 * Returns the canonical color of a color of the position.
+	 * @param color
+	 * @return canonical color
+	 */
+	public int toCanonicalColor(int color) {
+		return colorMap[color];
+	}
+	
+	/**
+	 * Maps a move on the position to the same move on the canonical board.
+	 * @param move
+	 * @return canonical move
+	 */
+	public int toCanonical(int move) {
+		return MOVE_MAP[transform][move];
+	}
+	
+	/**
+	 * Maps a move on the canonical board back to the same move on the position.
+	 * @param move canonical move
+	 * @return move
+	 */
+	public int fromCanonical(int move) {
+		return MOVE_MAP[INVERSE[transform]][move];
+	}
+	
+	/**
+	 * Maps a double move on the position to the same double move on the canonical board.
+	 * @param move
+	 * @return canonical move
+	 */
+	public Tuple<Integer, Integer> toCanonical(Tuple<Integer, Integer> move) {
+		return new Tuple<Integer, Integer>(toCanonical(move.x), toCanonical(move.y));
+	}
+	
+	/**
+	 * Maps a double move on the canonical board back to the same double move on the position.
+	 * @param move canonical move
+	 * @return move
+	 */
+	public Tuple<Integer, Integer> fromCanonical(Tuple<Integer, Integer> move) {
+		return new Tuple<Integer, Integer>(fromCanonical(move.x), fromCanonical(move.y));
+	}
+}
@@ -0,0 +1,91 @@
+package game;
+
+import java.util.Random;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * Random keys used to hash a position.
+ * The hash of a position is the XOR of the keys of all its parts,
+ * so it can be updated by XORing out the old and XORing in the new part.
+ * The keys are generated from a fixed seed, so hashes are equal in every run.
+ */
+
+public final class Zobrist {
+	/** Number of cells on the board. */
+	static final int CELLS = 49;
+	/** Highest number of balls of one color a player can be counted with. */
+	static final int MAX_COUNT = CELLS;
+	
+	/** Keys per cell and color, cell * 7 + color. Color 0 has key 0. */
+	private static final long[] CELL_KEYS = new long[CELLS * 7];
+	/** Keys per player, color and count, (player * 7 + color) * (MAX_COUNT + 1) + count. Count 0 has key 0. */
+	private static final long[] COUNT_KEYS = new long[2 * 7 * (MAX_COUNT + 1)];
+	/** Key XORed in when player 2 is to move. */
+	public static final long SIDE;
+	
+	static {
+		Random random = new Random(0x5EEDC011EC70L);
+		for (int i = 0; i < CELL_KEYS.length; i++) {
+			CELL_KEYS[i] = i % 7 == 0 ? 0 : random.nextLong();
+		}
+		for (int i = 0; i < COUNT_KEYS.length; i++) {
+			COUNT_KEYS[i] = i % (MAX_COUNT + 1) == 0 ? 0 : random.nextLong();
+		}
+		SIDE = random.nextLong();
+	}
+	
+	private Zobrist() {
+	}
+	
+	/**
+	 * Returns the key of a ball of the given color on the given cell.
+	 * @param index of the cell
+	 * @param color
+	 * @return key
+	 */
+	public static long cell(int index, int color) {
+		return CELL_KEYS[index * 7 + color];
+	}
+	
+	/**
+	 * Returns the key of a player having collected count balls of the given color.
+	 * @param player index
+	 * @param color
+	 * @param count
+	 * @return key
+	 */
+	public static long count(int player, int color, int count) {
+		return COUNT_KEYS[(player * 7 + color) * (MAX_COUNT + 1) + count];
+	}
+	
+	/**
+	 * Returns the XOR of the keys of all balls of one color in the bitboard.
+	 * @param color
+	 * @param mask bitboard
+	 * @return key
+	 */
+	public static long cells(int color, long mask) {
+		long key = 0;
+		while (mask != 0) {
+			key ^= CELL_KEYS[Long.numberOfTrailingZeros(mask) * 7 + color];
+			mask &= mask - 1;
+		}
+		return key;
+	}
+	
+	/**
+	 * Returns the hash of a full position: the board, the collected balls and the side to move.
+	 * @param board
+	 * @param ballKeeper
+	 * @param sideToMove index of the player to move
+	 * @return hash
+	 */
+	public static long hash(Board board, BallKeeper ballKeeper, int sideToMove) {
+		long hash = board.getHash() ^ ballKeeper.getHash();
+		if (sideToMove == BallKeeper.PLAYER2) {
+			hash ^= SIDE;
+		}
+		return hash;
+	}
+}
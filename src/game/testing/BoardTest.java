@@ -4,12 +4,17 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.List;
+import java.util.Random;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import game.Ball;
+import game.BallKeeper;
 import game.Board;
+import game.MoveGenerator;
+import game.PositionKey;
+import game.Symmetry;
 
 public class BoardTest {
 	private Board board;
@@ -63,5 +68,131 @@ public class BoardTest {
 		
 		 
 		 
+	}
+	@Test
+	public void testUndoMove() {
+		String boardString = "5342536463431253212654"
+				+ "140414562156231546536362121";
+		board.setBoard(boardString);
+		board.doMove(17);
+		String afterMove = board.toString();
+		// remove the neighbours found after the move
+		board.removeBalls(board.getNeighbourMask());
+		assertEquals(board.getNumOfBalls(), 46);
+		board.doMove(3);
+		board.undoMove();
+		assertEquals(board.getNumOfBalls(), 46);
+		//undoing the first move also puts the removed balls back
+		board.undoMove();
+		assertEquals(board.toString(), boardString);
+		board.doMove(17);
+		assertEquals(board.toString(), afterMove);
+	}
+	@Test
+	public void testPositionKey() {
+		String boardString = "5342536463431253212654"
+				+ "140414562156231546536362121";
+		board.setBoard(boardString);
+		BallKeeper ballKeeper = new BallKeeper("p1", "p2");
+		ballKeeper.addBalls(BallKeeper.PLAYER2, 4, 3);
+		PositionKey key = PositionKey.of(board, ballKeeper, BallKeeper.PLAYER2);
+		//the key converts back to the same board and counters
+		assertEquals(key.toString(), boardString);
+		assertEquals(key.toBoard().toString(), boardString);
+		assertEquals(key.getCount(BallKeeper.PLAYER2, 4), 3);
+		assertEquals(key.toBallKeeper("p1", "p2").getPoints(BallKeeper.PLAYER2), 1);
+		assertEquals(key.getSideToMove(), BallKeeper.PLAYER2);
+		assertEquals(PositionKey.fromString(boardString), PositionKey.of(board));
+		assertTrue(!key.equals(PositionKey.of(board)));
+	}
+	@Test
+	public void testBallKeeperScore() {
+		BallKeeper ballKeeper = new BallKeeper("p1", "p2");
+		ballKeeper.addBalls(BallKeeper.PLAYER1, 2, 2);
+		assertEquals(ballKeeper.getPairs(BallKeeper.PLAYER1), 1);
+		assertEquals(ballKeeper.getScore(BallKeeper.PLAYER1), 2);
+		ballKeeper.addBalls(BallKeeper.PLAYER1, 2, 1);
+		assertEquals(ballKeeper.getPairs(BallKeeper.PLAYER1), 0);
+		assertEquals(ballKeeper.getScore(BallKeeper.PLAYER1), BallKeeper.POINT_WEIGHT + 3);
+		assertEquals(ballKeeper.getScore(BallKeeper.PLAYER2), -BallKeeper.POINT_WEIGHT - 3);
+		//taking the balls away again restores everything
+		ballKeeper.addBalls(BallKeeper.PLAYER1, 2, -3);
+		assertEquals(ballKeeper.getScore(BallKeeper.PLAYER1), 0);
+		assertEquals(ballKeeper.getPairs(BallKeeper.PLAYER1), 0);
+		assertEquals(ballKeeper.getHash(), 0);
+	}
+	@Test
+	public void testDoubleMovesExhaustive() {
+		Random random = new Random(7);
+		int checked = 0;
+		for (int game = 0; game < 20; game++) {
+			board.populateBoard();
+			board.clearJournal();
+			while (!MoveGenerator.isGameOver(board)) {
+				int singleMoves = MoveGenerator.getSingleMoves(board);
+				int move;
+				if (singleMoves != 0) {
+					move = MoveGenerator.nthMove(singleMoves, random.nextInt(Integer.bitCount(singleMoves)));
+					board.doMove(move);
+				} else {
+					//every pair of moves tried one by one, as the grouped generator must find the same
+					long[] doubleMoves = MoveGenerator.getDoubleMoves(board);
+					for (int first = 0; first < MoveGenerator.MOVES; first++) {
+						for (int second = 0; second < MoveGenerator.MOVES; second++) {
+							board.doMove(first);
+							board.doMove(second);
+							boolean legal = board.getNeighbourMask() != 0;
+							board.undoMove();
+							board.undoMove();
+							int index = first * MoveGenerator.MOVES + second;
+							assertEquals(legal, (doubleMoves[index >>> 6] & 1L << index) != 0);
+						}
+					}
+					assertEquals(!MoveGenerator.isEmpty(doubleMoves), MoveGenerator.hasDoubleMove(board));
+					checked++;
+					int index = MoveGenerator.nthDoubleMove(doubleMoves, random.nextInt(MoveGenerator.countDoubleMoves(doubleMoves)));
+					board.doMove(MoveGenerator.first(index));
+					board.doMove(MoveGenerator.second(index));
+				}
+				board.removeBalls(board.getNeighbourMask());
+				board.clearJournal();
+			}
+		}
+		assertTrue(checked > 0);
+	}
+	@Test
+	public void testMoveGenerator() {
+		String boardString = "5342536463431253212654"
+				+ "140414562156231546536362121";
+		board.setBoard(boardString);
+		//only the moves into the empty middle cell are legal
+		assertEquals(MoveGenerator.toList(MoveGenerator.getSingleMoves(board)), List.of(3, 10, 17, 24));
+		assertEquals(board.toString(), boardString);
+		//two balls of the same color in opposite corners need a double move
+		board.setBoard("1000000000000000000000000000000000000000000000001");
+		assertEquals(MoveGenerator.getSingleMoves(board), 0);
+		assertEquals(MoveGenerator.countDoubleMoves(MoveGenerator.getDoubleMoves(board)), 8);
+		assertTrue(!MoveGenerator.isGameOver(board));
+		board.setBoard("1000000000000000000000000000000000000000000000002");
+		assertTrue(MoveGenerator.isGameOver(board));
+	}
+	@Test
+	public void testSymmetry() {
+		String boardString = "5342536463431253212654"
+				+ "140414562156231546536362121";
+		board.setBoard(boardString);
+		//the same board mirrored left to right, with colors 1 and 2 swapped
+		Board mirrored = new Board();
+		mirrored.fillEmpty(mirrored);
+		for (int i = 0; i < 49; i++) {
+			int color = board.getColor(i);
+			mirrored.setColor(i / 7 * 7 + 6 - i % 7, color == 1 ? 2 : color == 2 ? 1 : color);
+		}
+		Symmetry symmetry = Symmetry.of(board, null, BallKeeper.PLAYER1);
+		assertEquals(Symmetry.canonicalKey(mirrored, null, BallKeeper.PLAYER1), symmetry.getKey());
+		//moves map to the canonical board and back
+		for (int move = 0; move < 28; move++) {
+			assertEquals(symmetry.fromCanonical(symmetry.toCanonical(move)), move);
+		}
 	}
 }
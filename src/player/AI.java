@@ -1,6 +1,8 @@
 package player;
 
+import game.BallKeeper;
 import game.Board;
+import game.MoveGenerator;
 import game.Tuple;
 
 
@@ -18,6 +20,10 @@ public class AI implements Player {
 	String name;
 	/** The board used by the AI player. */
 	Board board;
+	/** Whether the AI thinks on the opponent's time, if its strategy can. */
+	boolean pondering;
+	/** The search state kept over the game and shared with the strategy. */
+	SearchContext context;
 	
 	/**
 	 * Constructs a new AI player with a given strategy.
@@ -28,6 +34,8 @@ public class AI implements Player {
 		this.strategy = strategy;
 		board = new Board();
 		board.fillEmpty(board);
+		context = new SearchContext();
+		strategy.setSearchContext(context);
 	}
 	
 	/**
@@ -35,6 +43,7 @@ public class AI implements Player {
 	 * @return move
 	 */
 	public int determineSingleMove() {
+		stopPondering();
 		return strategy.determineMove(board);
 		
 	}
@@ -44,9 +53,86 @@ public class AI implements Player {
 	 * @return move
 	 */
 	public Tuple<Integer, Integer> determineDoubleMove() {
+		stopPondering();
 		return strategy.determineDoubleMove(board);
 	}
 	
+	/**
+	 * Sets whether the AI thinks on the opponent's time.
+	 * Only strategies that are a Ponderer can.
+	 * @param pondering
+	 */
+	public void setPondering(boolean pondering) {
+		this.pondering = pondering;
+	}
+	
+	/**
+	 * Starts thinking about the board in the background while the opponent is to move,
+	 * if pondering is on and the strategy can.
+	 */
+	public void startPondering() {
+		if (pondering && strategy instanceof Ponderer) {
+			((Ponderer) strategy).startPondering(board);
+		}
+	}
+	
+	/**
+	 * Stops thinking in the background, if the AI was.
+	 */
+	public void stopPondering() {
+		if (strategy instanceof Ponderer) {
+			((Ponderer) strategy).stopPondering();
+		}
+	}
+	
+	/**
+	 * Does a single move of either player on the AIs board,
+	 * removing the balls it collects and counting them for the player.
+	 * @param move
+	 * @param own true if the AI did the move, false if the opponent did
+	 */
+	public void playMove(int move, boolean own) {
+		stopPondering();
+		board.doMove(move);
+		collect(move, own);
+	}
+	
+	/**
+	 * Does a double move of either player on the AIs board,
+	 * removing the balls it collects and counting them for the player.
+	 * @param first
+	 * @param second
+	 * @param own true if the AI did the move, false if the opponent did
+	 */
+	public void playMove(int first, int second, boolean own) {
+		stopPondering();
+		board.doMove(first);
+		board.doMove(second);
+		collect(MoveGenerator.MOVES + first * MoveGenerator.MOVES + second, own);
+	}
+	
+	/**
+	 * Reports a move that has just been done on the board to the search context
+	 * and removes the balls it collects.
+	 * @param move single move, or MoveGenerator.MOVES plus a double move index
+	 * @param own true if the AI did the move
+	 */
+	private void collect(int move, boolean own) {
+		long found = board.getNeighbourMask();
+		context.movePlayed(board, found, move, own ? BallKeeper.PLAYER1 : BallKeeper.PLAYER2);
+		board.removeBalls(found);
+		//moves played in the game are never undone
+		board.clearJournal();
+	}
+	
+	/**
+	 * Returns the search state kept over the game.
+	 * @return context
+	 */
+	public SearchContext getSearchContext() {
+		return context;
+	}
+	
 	/**
 	 * Returns the AIs name.
 	 */
@@ -85,11 +171,25 @@ public class AI implements Player {
 	
 	/**
 	 * Sets the board based on a board string.
+	 * This starts a new game, so the search context is cleared.
 	 * @param board string
 	 */
 	@Override
 	public void setBoard(String board) {
+		setBoard(board, false);
+	}
+	
+	/**
+	 * Sets the board based on a board string and starts a new game,
+	 * keeping the transposition table of the search context if asked to.
+	 * @param board string
+	 * @param keepTable whether to keep the entries of the transposition table
+	 */
+	public void setBoard(String board, boolean keepTable) {
+		stopPondering();
 		this.board.setBoard(board);
+		this.board.clearJournal();
+		context.newGame(keepTable);
 	}
 
 	/**
@@ -0,0 +1,750 @@
+package player;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import game.BallKeeper;
+import game.Board;
+import game.MoveGenerator;
+import game.Tuple;
+import game.Zobrist;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * An alpha-beta strategy for the AI player.
+ * Searches the moves of both players with negamax and alpha-beta pruning,
+ * scoring a position by the difference between the collections of the two players.
+ * Single and double moves are searched alike, a double move counting as one ply.
+ * The depth can be individually set, or a time limit per move can be given instead.
+ * With a time limit the search deepens one ply at a time until the time is up,
+ * keeping the best move of the last completed depth.
+ * Positions reached by different move orders share their results through a transposition table.
+ * Moves are tried in the order given by MoveOrdering.
+ * Once few enough balls are left the EndgameSolver plays the end of the game exactly instead.
+ * Positions found in an EndgameDatabase are scored exactly without searching them.
+ * While the opponent is to move the search can ponder: it searches the opponent's position
+ * until stopped, so the positions after the opponent's real move are already in the table.
+ */
+public class AlphaBeta implements Strategy, Ponderer {
+	
+	/** Score larger than any evaluation. */
+	static final int INFINITY = 1000000;
+	/** Weight of a point compared to a single ball, so points always decide first. */
+	static final int POINT_WEIGHT = BallKeeper.POINT_WEIGHT;
+	/** Bits used per color to store the number of balls collected by a move. */
+	static final int COUNT_BITS = 6;
+	/** Default size of the transposition table in megabytes. */
+	static final int TABLE_MB = 16;
+	/** Deepest search tried with a time limit. */
+	static final int MAX_DEPTH = 64;
+	/** Number of nodes between two looks at the clock, minus one. */
+	static final int CLOCK_INTERVAL = 1023;
+	/** Default number of balls left on the board at which the endgame is solved exactly. */
+	static final int ENDGAME_BALLS = 16;
+	
+	/** The number of plies the algorithm searches. */
+	int level;
+	/** The balls collected so far, player 1 being the AI. */
+	BallKeeper bk;
+	/** The transposition table used by the search, null until the first search. */
+	TranspositionTable table;
+	/** The context the table is taken from, null if there is none. */
+	SearchContext context;
+	/** The number of positions visited by the last search. */
+	long nodes;
+	/** The score of the last search, seen from the AI. */
+	int score;
+	/** The time per move in milliseconds, 0 to search to the fixed level. */
+	long timeLimit;
+	/** The time at which the current search has to stop, 0 if there is none. */
+	long deadline;
+	/** Whether the current search ran out of time or was stopped by another thread. */
+	volatile boolean stopped;
+	/** Whether the current iteration stopped at the depth limit anywhere, instead of only at the end of the game. */
+	boolean depthLimited;
+	/** The depth of the last completed iteration. */
+	int completedDepth;
+	/** The killer moves and history used to order the moves. */
+	MoveOrdering ordering;
+	/** The distance of the current position from the root. */
+	int ply;
+	/** Buffers for the ordered moves per ply. */
+	long[][] orderBuffers;
+	/** Buffers for the double moves per ply. */
+	long[][] doubleMoveBuffers;
+	/** The number of balls left on the board at which the endgame is solved exactly, 0 to never solve. */
+	int endgameBalls;
+	/** The solver for the endgame, created on first use. */
+	EndgameSolver solver;
+	/** The database of solved endgame positions, null if there is none. */
+	EndgameDatabase database;
+	/** The thread pondering on the opponent's time, null if there is none. */
+	Thread ponderThread;
+	/** The best root score found by any task of a parallel root search, null outside of one. */
+	AtomicInteger rootBound;
+	/** The root bound read last, which the score of the root move has to beat to be exact. */
+	int rootAlpha;
+	
+	/**
+	 * Constructs an alpha-beta strategy with a new BallKeeper and default level of 4.
+	 * The 16 MB transposition table is created by the first search, unless a search context
+	 * or another table is set before.
+	 */
+	public AlphaBeta() {
+		this(null);
+	}
+	
+	/**
+	 * Constructs an alpha-beta strategy with a new BallKeeper and default level of 4,
+	 * using the given transposition table.
+	 * @param table null to create one on the first search
+	 */
+	public AlphaBeta(TranspositionTable table) {
+		level = 4;
+		bk = new BallKeeper("p1", "p2");
+		this.table = table;
+		ordering = new MoveOrdering();
+		orderBuffers = new long[MAX_DEPTH + 1][];
+		doubleMoveBuffers = new long[MAX_DEPTH + 1][];
+		endgameBalls = ENDGAME_BALLS;
+	}
+	
+	/**
+	 * Sets the number of plies the algorithm searches.
+	 * @param level
+	 */
+	public void setLevel(int level) {
+		this.level = level;
+	}
+	
+	/**
+	 * Sets the time the algorithm may use per move.
+	 * The search then deepens iteratively instead of using the level.
+	 * @param millis time per move, 0 to use the level again
+	 */
+	public void setTimeLimit(long millis) {
+		timeLimit = millis;
+	}
+	
+	/**
+	 * Sets the transposition table used by the search, so it can be shared or resized.
+	 * @param table
+	 */
+	public void setTranspositionTable(TranspositionTable table) {
+		this.table = table;
+	}
+	
+	/**
+	 * Sets the number of balls left on the board at which the endgame is solved exactly
+	 * instead of searched to the level or the time limit.
+	 * @param balls on the board, 0 to never solve
+	 */
+	public void setEndgameBalls(int balls) {
+		endgameBalls = balls;
+	}
+	
+	/**
+	 * Sets the database of solved endgame positions, used by the search and the solver.
+	 * @param database null for none
+	 */
+	public void setEndgameDatabase(EndgameDatabase database) {
+		this.database = database;
+		if (solver != null) {
+			solver.setDatabase(database);
+		}
+	}
+	
+	/**
+	 * Sets the balls collected so far, the AI being player 1.
+	 * @param ballKeeper
+	 */
+	public void setBallKeeper(BallKeeper ballKeeper) {
+		bk = ballKeeper;
+	}
+	
+	/**
+	 * Uses the balls collected in the game so far, the transposition table
+	 * and the move ordering kept by the context, so every search starts warm.
+	 * @param context
+	 */
+	@Override
+	public void setSearchContext(SearchContext context) {
+		this.context = context;
+		bk = context.getBallKeeper();
+		//taken on the first search, so the context only creates it if it is searched with
+		table = null;
+		ordering = context.getOrdering();
+	}
+	
+	/**
+	 * Returns the transposition table, taking it from the context or creating it on first use.
+	 * @return table
+	 */
+	TranspositionTable getTable() {
+		if (table == null) {
+			table = context != null ? context.getTranspositionTable() : new TranspositionTable(TABLE_MB);
+		}
+		return table;
+	}
+	
+	/**
+	 * Returns the number of positions visited by the last search.
+	 * @return nodes
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+	
+	/**
+	 * Returns the depth of the last completed iteration of the last search,
+	 * MAX_DEPTH if the endgame was solved.
+	 * @return depth
+	 */
+	public int getCompletedDepth() {
+		return completedDepth;
+	}
+	
+	/**
+	 * Returns the score of the best move found by the last search.
+	 * @return score
+	 */
+	public int getScore() {
+		return score;
+	}
+	
+	//----------------------------Strategy------------------------------------
+	
+	/**
+	 * Returns the best valid single move according to the algorithm.
+	 * @param board
+	 * @return move, -1 if there is no single move
+	 */
+	@Override
+	public int determineMove(Board board) {
+		int singleMoves = MoveGenerator.getSingleMoves(board);
+		if (singleMoves == 0) {
+			return -1;
+		}
+		int[] moves = toArray(singleMoves);
+		int best = deepen(board, moves, null);
+		return moves[best];
+	}
+	
+	/**
+	 * Returns the best valid double move according to the algorithm.
+	 * @param board
+	 * @return move, null if there is no double move
+	 */
+	@Override
+	public Tuple<Integer, Integer> determineDoubleMove(Board board) {
+		long[] doubleMoves = MoveGenerator.getDoubleMoves(board);
+		if (MoveGenerator.isEmpty(doubleMoves)) {
+			return null;
+		}
+		int[][] halves = toArrays(doubleMoves);
+		int[] firsts = halves[0];
+		int[] seconds = halves[1];
+		int best = deepen(board, firsts, seconds);
+		return new Tuple<Integer, Integer>(firsts[best], seconds[best]);
+	}
+	
+	/**
+	 * Returns the moves of a mask of single moves as an array.
+	 * @param singleMoves mask of moves
+	 * @return moves
+	 */
+	static int[] toArray(int singleMoves) {
+		int[] moves = new int[Integer.bitCount(singleMoves)];
+		int i = 0;
+		for (int rest = singleMoves; rest != 0; rest &= rest - 1) {
+			moves[i++] = Integer.numberOfTrailingZeros(rest);
+		}
+		return moves;
+	}
+	
+	/**
+	 * Returns the first and second halves of a set of double moves as two arrays.
+	 * @param doubleMoves set of double moves
+	 * @return first halves and second halves
+	 */
+	static int[][] toArrays(long[] doubleMoves) {
+		int count = MoveGenerator.countDoubleMoves(doubleMoves);
+		int[] firsts = new int[count];
+		int[] seconds = new int[count];
+		int i = 0;
+		for (int m = MoveGenerator.nextDoubleMove(doubleMoves, 0); m >= 0; m = MoveGenerator.nextDoubleMove(doubleMoves, m + 1)) {
+			firsts[i] = MoveGenerator.first(m);
+			seconds[i] = MoveGenerator.second(m);
+			i++;
+		}
+		return new int[][] {firsts, seconds};
+	}
+	
+	/**
+	 * Searches the root moves, deepening one ply at a time up to the level, or until the time limit.
+	 * An iteration that runs out of time is thrown away.
+	 * Deepening stops early when an iteration has searched every line to the end of the game.
+	 * With few enough balls left the endgame is solved instead; under a time limit the solver
+	 * gets half of the time, and if it does not finish the search deepens in the rest.
+	 * @param board
+	 * @param firsts the root moves, or the first halves of the double moves
+	 * @param seconds the second halves of the double moves, null for single moves
+	 * @return index of the best root move
+	 */
+	int deepen(Board board, int[] firsts, int[] seconds) {
+		stopPondering();
+		getTable();
+		nodes = 0;
+		stopped = false;
+		completedDepth = 0;
+		deadline = 0;
+		ply = 0;
+		long end = System.currentTimeMillis() + timeLimit;
+		if (Long.bitCount(board.getOccupied()) <= endgameBalls) {
+			int best = solve(board, firsts, seconds, timeLimit > 0 ? end - timeLimit / 2 : 0);
+			if (best >= 0) {
+				return best;
+			}
+		}
+		ordering.age();
+		//a search to a fixed level deepens as well, as the shallower searches fill
+		//the transposition table and the move ordering for the deeper ones
+		int to = level;
+		if (timeLimit > 0) {
+			to = MAX_DEPTH;
+		}
+		int best = 0;
+		for (int depth = 1; depth <= to; depth++) {
+			depthLimited = false;
+			int move = searchRoot(board, firsts, seconds, best, depth);
+			if (stopped) {
+				break;
+			}
+			best = move;
+			completedDepth = depth;
+			if (!depthLimited) {
+				break;
+			}
+			if (timeLimit > 0) {
+				//the first depth always completes, the clock only stops deeper ones
+				if (System.currentTimeMillis() >= end) {
+					break;
+				}
+				deadline = end;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Solves the endgame and returns the best root move.
+	 * The score is the exact final score seen from the AI.
+	 * @param board
+	 * @param firsts the root moves, or the first halves of the double moves
+	 * @param seconds the second halves of the double moves, null for single moves
+	 * @param until time at which the solver gives up, 0 for none
+	 * @return index of the best root move, -1 if the solver ran out of time
+	 */
+	int solve(Board board, int[] firsts, int[] seconds, long until) {
+		if (solver == null) {
+			solver = new EndgameSolver();
+			solver.setDatabase(database);
+		}
+		solver.setDeadline(until);
+		int best = solver.solveRoot(board, bk, BallKeeper.PLAYER1, firsts, seconds);
+		nodes = solver.getNodes();
+		if (best < 0) {
+			return best;
+		}
+		score = evaluate(BallKeeper.PLAYER1) + solver.getScore();
+		completedDepth = MAX_DEPTH;
+		return best;
+	}
+	
+	/**
+	 * Searches the root moves deeper and deeper up to a depth or until stopped by another thread,
+	 * only to fill the transposition table for the thread that reports the move.
+	 * Helpers start at different depths and try a different root move first,
+	 * so they spread over the tree instead of searching the same lines.
+	 * @param board own copy of the board
+	 * @param firsts the root moves, or the first halves of the double moves
+	 * @param seconds the second halves of the double moves, null for single moves
+	 * @param startDepth the first depth to search
+	 * @param maxDepth the last depth to search
+	 * @param offset index of the root move to try first
+	 */
+	void help(Board board, int[] firsts, int[] seconds, int startDepth, int maxDepth, int offset) {
+		nodes = 0;
+		deadline = 0;
+		ply = 0;
+		int best = offset % firsts.length;
+		for (int depth = startDepth; depth <= maxDepth && !stopped; depth++) {
+			depthLimited = false;
+			best = searchRoot(board, firsts, seconds, best, depth);
+			if (!depthLimited) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Stops the search running in another thread as soon as possible.
+	 */
+	public void stop() {
+		stopped = true;
+	}
+	
+	/**
+	 * Starts searching the opponent's position in a background thread, deepening until stopped.
+	 * @param board with the opponent to move
+	 */
+	@Override
+	public void startPondering(Board board) {
+		stopPondering();
+		getTable();
+		stopped = false;
+		Board copy = board.getCopy();
+		ponderThread = new Thread(() -> ponder(copy));
+		ponderThread.setDaemon(true);
+		ponderThread.start();
+	}
+	
+	/**
+	 * Stops the background search and waits for it to end.
+	 */
+	@Override
+	public void stopPondering() {
+		if (ponderThread == null) {
+			return;
+		}
+		stop();
+		//the thread ends soon, and must have before the next search uses the table and the ball keeper
+		boolean interrupted = false;
+		while (ponderThread.isAlive()) {
+			try {
+				ponderThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		ponderThread = null;
+	}
+	
+	/**
+	 * Searches the opponent's position deeper and deeper until stopped,
+	 * only to fill the transposition table and the move ordering for the next search.
+	 * @param board own copy of the board, the opponent to move
+	 */
+	void ponder(Board board) {
+		nodes = 0;
+		deadline = 0;
+		ply = 0;
+		for (int depth = 1; depth <= MAX_DEPTH && !stopped; depth++) {
+			depthLimited = false;
+			search(board, BallKeeper.PLAYER2, depth, -INFINITY, INFINITY,
+					database != null && database.isEntry(0, Long.bitCount(board.getOccupied())));
+			if (!depthLimited) {
+				break;
+			}
+		}
+	}
+	
+	/**
+	 * Searches all root moves to the given depth, trying the previous best move first.
+	 * Sets the score of the best move.
+	 * @param board
+	 * @param firsts the root moves, or the first halves of the double moves
+	 * @param seconds the second halves of the double moves, null for single moves
+	 * @param previous index of the best root move of the previous iteration
+	 * @param depth
+	 * @return index of the best root move
+	 */
+	int searchRoot(Board board, int[] firsts, int[] seconds, int previous, int depth) {
+		int best = previous;
+		int alpha = -INFINITY;
+		for (int k = 0; k < firsts.length; k++) {
+			//search the previous best move first, in place of the first move
+			int i = k == 0 ? previous : k == previous ? 0 : k;
+			long changed = Board.getLineMask(firsts[i]);
+			board.doMove(firsts[i]);
+			if (seconds != null) {
+				changed |= Board.getLineMask(seconds[i]);
+				board.doMove(seconds[i]);
+			}
+			int value = -searchAfter(board, changed, BallKeeper.PLAYER1, depth - 1, -INFINITY, -alpha);
+			board.undoMove();
+			if (seconds != null) {
+				board.undoMove();
+			}
+			if (stopped) {
+				return best;
+			}
+			if (value > alpha) {
+				alpha = value;
+				best = i;
+			}
+		}
+		score = alpha;
+		return best;
+	}
+	
+	/**
+	 * Does a move, searches the position after it and undoes the move.
+	 * @param board
+	 * @param move number, a single move or MoveGenerator.MOVES plus a double move index
+	 * @param player index of the player doing the move
+	 * @param depth plies left after the move
+	 * @param alpha
+	 * @param beta
+	 * @return score of the move for the player
+	 */
+	int searchMove(Board board, int move, int player, int depth, int alpha, int beta) {
+		if (move < MoveGenerator.MOVES) {
+			board.doMove(move);
+			int value = -searchAfter(board, Board.getLineMask(move), player, depth, -beta, -alpha);
+			board.undoMove();
+			return value;
+		}
+		int first = MoveGenerator.first(move - MoveGenerator.MOVES);
+		int second = MoveGenerator.second(move - MoveGenerator.MOVES);
+		board.doMove(first);
+		board.doMove(second);
+		int value = -searchAfter(board, Board.getLineMask(first) | Board.getLineMask(second),
+				player, depth, -beta, -alpha);
+		board.undoMove();
+		board.undoMove();
+		return value;
+	}
+	
+	/**
+	 * Returns the buffer for the ordered moves of a ply, creating it on first use.
+	 * @param ply
+	 * @return buffer
+	 */
+	long[] getOrderBuffer(int ply) {
+		if (orderBuffers[ply] == null) {
+			orderBuffers[ply] = new long[MoveGenerator.DOUBLE_MOVES];
+		}
+		return orderBuffers[ply];
+	}
+	
+	/**
+	 * Returns the buffer for the double moves of a ply, creating it on first use.
+	 * @param ply
+	 * @return buffer
+	 */
+	long[] getDoubleMoveBuffer(int ply) {
+		if (doubleMoveBuffers[ply] == null) {
+			doubleMoveBuffers[ply] = new long[MoveGenerator.DOUBLE_MOVE_WORDS];
+		}
+		return doubleMoveBuffers[ply];
+	}
+	
+	/**
+	 * Collects the balls of a move that has just been done, searches the resulting position
+	 * from the view of the opponent and gives the balls back.
+	 * The caller undoes the move itself.
+	 * @param board after the move
+	 * @param changed bitboard of the lines changed by the move
+	 * @param player index of the player that did the move
+	 * @param depth plies left
+	 * @param alpha
+	 * @param beta
+	 * @return score seen from the opponent
+	 */
+	int searchAfter(Board board, long changed, int player, int depth, int alpha, int beta) {
+		long found = board.getNeighbourMask(changed);
+		long collected = collect(board, found, player);
+		boolean probe = false;
+		if (database != null) {
+			//the moves of the root count as the start of the line
+			int balls = Long.bitCount(board.getOccupied());
+			probe = database.isEntry(ply == 0 ? 0 : balls, balls - Long.bitCount(found));
+		}
+		board.removeBalls(found);
+		ply++;
+		int value = search(board, 1 - player, depth, alpha, beta, probe);
+		ply--;
+		uncollect(collected, player);
+		return value;
+	}
+	
+	/**
+	 * Searches the position after a root move as one task of a parallel root search.
+	 * The bound shared by the tasks is read again at every move of the position,
+	 * so the task stops as soon as another task has found a root move at least as good.
+	 * @param board after the root move
+	 * @param changed bitboard of the lines changed by the root move
+	 * @param player index of the player that did the root move
+	 * @param depth plies left
+	 * @param bound best root score found by any task so far
+	 * @return score seen from the opponent; the root move is only exact if its negation beats getRootAlpha
+	 */
+	int searchAfter(Board board, long changed, int player, int depth, AtomicInteger bound) {
+		rootBound = bound;
+		rootAlpha = bound.get();
+		int value = searchAfter(board, changed, player, depth, -INFINITY, -rootAlpha);
+		rootBound = null;
+		return value;
+	}
+	
+	/**
+	 * Returns the last value of the shared root bound read by the task's search.
+	 * @return root alpha
+	 */
+	int getRootAlpha() {
+		return rootAlpha;
+	}
+	
+	/**
+	 * Returns the score of the position for the player to move.
+	 * Uses negamax with alpha-beta pruning. If no move is left the game is over
+	 * and the final collections are returned.
+	 * Results are looked up in and stored into the transposition table.
+	 * A result that was not cut off by the depth anywhere is stored as searched to MAX_DEPTH.
+	 * The endgame database is only looked up where the line gets down to its balls,
+	 * and what it knows is kept in the transposition table.
+	 * @param board
+	 * @param player index of the player to move
+	 * @param depth plies left
+	 * @param alpha
+	 * @param beta
+	 * @param probe whether to look the position up in the endgame database
+	 * @return score
+	 */
+	int search(Board board, int player, int depth, int alpha, int beta, boolean probe) {
+		nodes++;
+		if (deadline != 0 && (nodes & CLOCK_INTERVAL) == 0 && System.currentTimeMillis() >= deadline) {
+			stopped = true;
+		}
+		if (stopped) {
+			return 0;
+		}
+		if (depth <= 0) {
+			depthLimited = true;
+			return evaluate(player);
+		}
+		long hash = Zobrist.hash(board, bk, player);
+		long entry = table.probe(hash);
+		if (entry != 0 && TranspositionTable.getDepth(entry) >= depth) {
+			int value = TranspositionTable.getScore(entry);
+			int bound = TranspositionTable.getBound(entry);
+			if (bound == TranspositionTable.EXACT
+					|| bound == TranspositionTable.LOWER && value >= beta
+					|| bound == TranspositionTable.UPPER && value <= alpha) {
+				if (TranspositionTable.getDepth(entry) < TranspositionTable.MAX_DEPTH) {
+					depthLimited = true;
+				}
+				return value;
+			}
+		}
+		if (probe) {
+			int exact = database.getScore(board, bk, player);
+			if (exact != EndgameDatabase.NOT_FOUND) {
+				exact += evaluate(player);
+				table.store(hash, TranspositionTable.MAX_DEPTH, TranspositionTable.EXACT, exact, TranspositionTable.NO_MOVE);
+				return exact;
+			}
+		}
+		boolean outerLimited = depthLimited;
+		depthLimited = false;
+		int alphaStart = alpha;
+		int bestMove = TranspositionTable.NO_MOVE;
+		int tableMove = entry != 0 ? TranspositionTable.getMove(entry) : TranspositionTable.NO_MOVE;
+		long[] ordered = getOrderBuffer(ply);
+		int count;
+		int singleMoves = MoveGenerator.getSingleMoves(board);
+		if (singleMoves != 0) {
+			count = ordering.order(singleMoves, tableMove, ply, ordered);
+		} else {
+			long[] doubleMoves = getDoubleMoveBuffer(ply);
+			MoveGenerator.getDoubleMoves(board, doubleMoves);
+			if (MoveGenerator.isEmpty(doubleMoves)) {
+				depthLimited = outerLimited;
+				return evaluate(player);
+			}
+			count = ordering.order(doubleMoves, tableMove, ply, ordered);
+		}
+		for (int k = 0; k < count; k++) {
+			int move = MoveOrdering.pick(ordered, count, k);
+			int value = searchMove(board, move, player, depth - 1, alpha, beta);
+			if (stopped) {
+				return 0;
+			}
+			if (value > alpha) {
+				alpha = value;
+				bestMove = move;
+				if (alpha >= beta) {
+					ordering.cutoff(move, ply, depth);
+					break;
+				}
+			}
+			if (ply == 1 && rootBound != null) {
+				//another task may have raised the bound the root move has to beat
+				rootAlpha = rootBound.get();
+				beta = Math.min(beta, -rootAlpha);
+				if (alpha >= beta) {
+					break;
+				}
+			}
+		}
+		int bound = TranspositionTable.EXACT;
+		if (alpha <= alphaStart) {
+			bound = TranspositionTable.UPPER;
+		} else if (alpha >= beta) {
+			bound = TranspositionTable.LOWER;
+		}
+		table.store(hash, depthLimited ? depth : TranspositionTable.MAX_DEPTH, bound, alpha, bestMove);
+		depthLimited |= outerLimited;
+		return alpha;
+	}
+	
+	/**
+	 * Scores the collections for the given player.
+	 * Points decide first, the number of balls breaks ties, like the winner of a game.
+	 * @param player index
+	 * @return score
+	 */
+	int evaluate(int player) {
+		return bk.getScore(player);
+	}
+	
+	/**
+	 * Adds the balls in the mask to the given player.
+	 * @param board
+	 * @param found bitboard of the collected balls
+	 * @param player index
+	 * @return number of balls per color, COUNT_BITS bits per color
+	 */
+	long collect(Board board, long found, int player) {
+		long collected = 0;
+		if (found != 0) {
+			for (int c = 1; c < 7; c++) {
+				int count = Long.bitCount(board.getColorMask(c) & found);
+				if (count != 0) {
+					bk.addBalls(player, c, count);
+					collected |= (long) count << (c * COUNT_BITS);
+				}
+			}
+		}
+		return collected;
+	}
+	
+	/**
+	 * Takes the balls added by collect away from the given player.
+	 * @param collected number of balls per color as returned by collect
+	 * @param player index
+	 */
+	void uncollect(long collected, int player) {
+		for (int c = 1; collected != 0; c++) {
+			collected >>>= COUNT_BITS;
+			int count = (int) collected & ((1 << COUNT_BITS) - 1);
+			if (count != 0) {
+				bk.addBalls(player, c, -count);
+			}
+		}
+	}
+}
@@ -0,0 +1,230 @@
+package player;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import game.BallKeeper;
+import game.Board;
+import game.PositionKey;
+import game.Symmetry;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * A read only file of exact endgame scores, as written by EndgameGenerator.
+ * The file is mapped into memory instead of read, so it takes no heap and processes
+ * using the same file share its pages.
+ * Positions are stored in canonical form (see Symmetry), with the player to move as player 1
+ * and only the balls beyond a multiple of three per color, as that is all the score depends on.
+ * The file is a header followed by records of a 64 bit hash of the canonical key, a second,
+ * independent 64 bit hash of it and the score, sorted by the first hash, so a position is found
+ * by binary search. A found score is taken as exact and outranks any search, so a match of the
+ * first hash alone is not trusted: the second one has to match as well. Two different positions
+ * would have to agree in both to be mistaken for each other.
+ * Scores are the same as EndgameSolver's: what the player to move still gains minus what the opponent gains.
+ */
+
+public class EndgameDatabase {
+	/** First int of every file. */
+	static final int MAGIC = 0x434F4C45;
+	/** Version of the file layout. */
+	static final int VERSION = 2;
+	/** Bytes of the header: magic, version, maximum number of balls and number of records. */
+	static final int HEADER = 16;
+	/** Bytes of a record: the hash, the check hash and the score. */
+	static final int RECORD = 20;
+	/** Score returned for a position that is not in the file. */
+	public static final int NOT_FOUND = Integer.MIN_VALUE;
+	
+	/** The mapped file. */
+	private final MappedByteBuffer buffer;
+	/** The most balls on the board of a stored position. */
+	private final int maxBalls;
+	/** The number of records. */
+	private final int records;
+	
+	/**
+	 * Constructs a database on a mapped file.
+	 * @param buffer
+	 * @throws IOException if the file is not an endgame database
+	 */
+	private EndgameDatabase(MappedByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("Not an endgame database");
+		}
+		maxBalls = buffer.getInt(8);
+		records = buffer.getInt(12);
+		if (buffer.capacity() != HEADER + (long) records * RECORD) {
+			throw new IOException("Endgame database is truncated");
+		}
+	}
+	
+	/**
+	 * Maps a database file into memory.
+	 * @param path of the file
+	 * @return database
+	 * @throws IOException if the file can not be read or is not an endgame database
+	 */
+	public static EndgameDatabase open(String path) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			//the mapping stays valid after the channel is closed
+			return new EndgameDatabase(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+	
+	/**
+	 * Writes a database file.
+	 * @param path of the file
+	 * @param maxBalls the most balls on the board of a stored position
+	 * @param hashes of the canonical keys, sorted
+	 * @param checks check hashes of the canonical keys, per hash
+	 * @param scores per hash
+	 * @param count number of records
+	 * @throws IOException if the file can not be written
+	 */
+	public static void write(String path, int maxBalls, long[] hashes, long[] checks, int[] scores, int count)
+			throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(maxBalls);
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				out.writeLong(hashes[i]);
+				out.writeLong(checks[i]);
+				out.writeInt(scores[i]);
+			}
+		}
+	}
+	
+	/**
+	 * Returns the most balls on the board of a stored position.
+	 * Positions with more balls are never found.
+	 * @return balls
+	 */
+	public int getMaxBalls() {
+		return maxBalls;
+	}
+	
+	/**
+	 * Returns whether a position is worth looking up, by the balls on the board of it and of the position before.
+	 * The generator solves every position reachable from the first position of a game with at most
+	 * maxBalls balls, so a line is only looked up where it gets there. The positions after that
+	 * are found through it, and probing every one of them is mostly wasted on misses.
+	 * @param before balls on the board before the move, 0 at the root of a search
+	 * @param after balls on the board after the move
+	 * @return whether to look the position up
+	 */
+	public boolean isEntry(int before, int after) {
+		return after <= maxBalls && (before > maxBalls || before == 0);
+	}
+	
+	/**
+	 * Returns the number of stored positions.
+	 * @return records
+	 */
+	public int size() {
+		return records;
+	}
+	
+	/**
+	 * Returns the exact score of a position for the player to move.
+	 * @param board
+	 * @param ballKeeper balls collected so far
+	 * @param player index of the player to move
+	 * @return score, NOT_FOUND if the position is not stored
+	 */
+	public int getScore(Board board, BallKeeper ballKeeper, int player) {
+		if (Long.bitCount(board.getOccupied()) > maxBalls) {
+			return NOT_FOUND;
+		}
+		PositionKey key = key(board, ballKeeper, player);
+		long hash = hash(key);
+		int low = 0;
+		int high = records - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			long stored = getHash(middle);
+			if (stored < hash) {
+				low = middle + 1;
+			} else if (stored > hash) {
+				high = middle - 1;
+			} else {
+				//records sharing the hash are next to each other, only the check tells them apart
+				long check = check(key);
+				int first = middle;
+				while (first > 0 && getHash(first - 1) == hash) {
+					first--;
+				}
+				for (int i = first; i < records && getHash(i) == hash; i++) {
+					if (buffer.getLong(HEADER + i * RECORD + 8) == check) {
+						return buffer.getInt(HEADER + i * RECORD + 16);
+					}
+				}
+				return NOT_FOUND;
+			}
+		}
+		return NOT_FOUND;
+	}
+	
+	/**
+	 * Returns the hash of a record.
+	 * @param record index
+	 * @return hash
+	 */
+	private long getHash(int record) {
+		return buffer.getLong(HEADER + record * RECORD);
+	}
+	
+	/**
+	 * Returns the canonical key a position is stored under: the player to move becomes player 1
+	 * and only the balls beyond a multiple of three per color are kept.
+	 * @param board
+	 * @param ballKeeper balls collected so far
+	 * @param player index of the player to move
+	 * @return canonical key
+	 */
+	public static PositionKey key(Board board, BallKeeper ballKeeper, int player) {
+		BallKeeper rest = new BallKeeper("p1", "p2");
+		for (int c = 1; c < 7; c++) {
+			rest.addBalls(BallKeeper.PLAYER1, c, ballKeeper.getNumOfBalls(player, c) % 3);
+			rest.addBalls(BallKeeper.PLAYER2, c, ballKeeper.getNumOfBalls(1 - player, c) % 3);
+		}
+		return Symmetry.canonicalKey(board, rest, BallKeeper.PLAYER1);
+	}
+	
+	/**
+	 * Returns the 64 bit hash a key is stored under.
+	 * @param key
+	 * @return hash
+	 */
+	public static long hash(PositionKey key) {
+		long h = key.getCells(0);
+		h = (h ^ h >>> 29) * 0xBF58476D1CE4E5B9L ^ key.getCells(1);
+		h = (h ^ h >>> 29) * 0xBF58476D1CE4E5B9L ^ key.getCells(2);
+		h = (h ^ h >>> 29) * 0xBF58476D1CE4E5B9L ^ key.getState();
+		h = (h ^ h >>> 32) * 0x94D049BB133111EBL;
+		return h ^ h >>> 29;
+	}
+	
+	/**
+	 * Returns the check hash of a key, mixed independently of hash, from the other end of the key.
+	 * @param key
+	 * @return check hash
+	 */
+	public static long check(PositionKey key) {
+		long h = key.getState() ^ 0x9E3779B97F4A7C15L;
+		h = (h ^ h >>> 33) * 0xFF51AFD7ED558CCDL ^ key.getCells(2);
+		h = (h ^ h >>> 33) * 0xFF51AFD7ED558CCDL ^ key.getCells(1);
+		h = (h ^ h >>> 33) * 0xFF51AFD7ED558CCDL ^ key.getCells(0);
+		h = (h ^ h >>> 33) * 0xC4CEB9FE1A85EC53L;
+		return h ^ h >>> 33;
+	}
+}
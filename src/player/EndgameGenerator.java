@@ -0,0 +1,188 @@
+package player;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import game.BallKeeper;
+import game.Board;
+import game.MoveGenerator;
+import game.PositionKey;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * Builds an EndgameDatabase offline.
+ * Random games are played until at most the given number of balls is left; from there every position
+ * reachable by any sequence of moves is enumerated, solved exactly with the EndgameSolver
+ * and kept once per canonical key.
+ * The positions with up to K balls of all games together are what the database holds,
+ * so more games give a database covering more endgames.
+ * Run as: EndgameGenerator file balls games [seed]
+ */
+
+public class EndgameGenerator {
+	/** Size of the solver's transposition table in megabytes. */
+	static final int TABLE_MB = 64;
+	
+	/** The most balls on the board of a stored position. */
+	private final int maxBalls;
+	/** The solver scoring the positions. */
+	private final EndgameSolver solver;
+	/** The solved positions by canonical key. */
+	private final Map<PositionKey, Integer> scores;
+	/** The source of the random games. */
+	private final Random random;
+	
+	/**
+	 * Constructs a generator.
+	 * @param maxBalls the most balls on the board of a stored position
+	 * @param seed of the random games
+	 */
+	public EndgameGenerator(int maxBalls, long seed) {
+		this.maxBalls = maxBalls;
+		solver = new EndgameSolver(new TranspositionTable(TABLE_MB));
+		scores = new HashMap<PositionKey, Integer>();
+		random = new Random(seed);
+	}
+	
+	/**
+	 * Returns the number of solved positions.
+	 * @return positions
+	 */
+	public int size() {
+		return scores.size();
+	}
+	
+	/**
+	 * Returns the solved positions by canonical key.
+	 * @return unmodifiable view of the scores
+	 */
+	public Map<PositionKey, Integer> getScores() {
+		return Collections.unmodifiableMap(scores);
+	}
+	
+	/**
+	 * Plays a random game until at most maxBalls balls are left
+	 * and solves every position reachable from there.
+	 */
+	public void addGame() {
+		Board board = new Board();
+		board.populateBoard();
+		board.clearJournal();
+		BallKeeper ballKeeper = new BallKeeper("p1", "p2");
+		int player = BallKeeper.PLAYER1;
+		long[] doubleMoves = new long[MoveGenerator.DOUBLE_MOVE_WORDS];
+		while (Long.bitCount(board.getOccupied()) > maxBalls) {
+			int singleMoves = MoveGenerator.getSingleMoves(board);
+			int move;
+			if (singleMoves != 0) {
+				move = MoveGenerator.nthMove(singleMoves, random.nextInt(Integer.bitCount(singleMoves)));
+			} else {
+				MoveGenerator.getDoubleMoves(board, doubleMoves);
+				int count = MoveGenerator.countDoubleMoves(doubleMoves);
+				if (count == 0) {
+					return;
+				}
+				move = MoveGenerator.MOVES + MoveGenerator.nthDoubleMove(doubleMoves, random.nextInt(count));
+			}
+			MonteCarlo.play(board, ballKeeper, move, player);
+			player = 1 - player;
+		}
+		board.clearJournal();
+		enumerate(board, ballKeeper, player);
+	}
+	
+	/**
+	 * Solves a position and every position reachable from it that was not solved before.
+	 * The board and the ball keeper are the same afterwards.
+	 * @param board
+	 * @param ballKeeper
+	 * @param player index of the player to move
+	 */
+	void enumerate(Board board, BallKeeper ballKeeper, int player) {
+		PositionKey key = EndgameDatabase.key(board, ballKeeper, player);
+		if (scores.containsKey(key)) {
+			return;
+		}
+		scores.put(key, solver.solve(board, ballKeeper, player));
+		int singleMoves = MoveGenerator.getSingleMoves(board);
+		if (singleMoves != 0) {
+			for (int moves = singleMoves; moves != 0; moves &= moves - 1) {
+				enumerateAfter(board, ballKeeper, Integer.numberOfTrailingZeros(moves), player);
+			}
+		} else {
+			long[] doubleMoves = MoveGenerator.getDoubleMoves(board);
+			for (int m = MoveGenerator.nextDoubleMove(doubleMoves, 0); m >= 0; m = MoveGenerator.nextDoubleMove(doubleMoves, m + 1)) {
+				enumerateAfter(board, ballKeeper, MoveGenerator.MOVES + m, player);
+			}
+		}
+	}
+	
+	/**
+	 * Does a move, enumerates the position after it and undoes the move.
+	 * @param board
+	 * @param ballKeeper
+	 * @param move single move, or MoveGenerator.MOVES plus a double move index
+	 * @param player index of the player doing the move
+	 */
+	private void enumerateAfter(Board board, BallKeeper ballKeeper, int move, int player) {
+		long collected = MonteCarlo.play(board, ballKeeper, move, player);
+		enumerate(board, ballKeeper, 1 - player);
+		MonteCarlo.undo(board, ballKeeper, collected, player);
+	}
+	
+	/**
+	 * Writes the solved positions as a database file, sorted by hash and then by check hash.
+	 * @param path of the file
+	 * @throws IOException if the file can not be written
+	 */
+	public void write(String path) throws IOException {
+		List<long[]> records = new ArrayList<long[]>(scores.size());
+		for (Map.Entry<PositionKey, Integer> entry : scores.entrySet()) {
+			records.add(new long[] {EndgameDatabase.hash(entry.getKey()), EndgameDatabase.check(entry.getKey()),
+					entry.getValue()});
+		}
+		records.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+		long[] hashes = new long[records.size()];
+		long[] checks = new long[records.size()];
+		int[] values = new int[records.size()];
+		for (int i = 0; i < hashes.length; i++) {
+			hashes[i] = records.get(i)[0];
+			checks[i] = records.get(i)[1];
+			values[i] = (int) records.get(i)[2];
+		}
+		EndgameDatabase.write(path, maxBalls, hashes, checks, values, hashes.length);
+	}
+	
+	/**
+	 * Generates a database file.
+	 * @param args file, the most balls of a stored position, the number of games and optionally a seed
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.out.println("Usage: EndgameGenerator file balls games [seed]");
+			return;
+		}
+		int balls = Integer.parseInt(args[1]);
+		int games = Integer.parseInt(args[2]);
+		long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+		EndgameGenerator generator = new EndgameGenerator(balls, seed);
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < games; i++) {
+			generator.addGame();
+		}
+		try {
+			generator.write(args[0]);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		System.out.println(generator.size() + " positions of up to " + balls + " balls written to " + args[0]
+				+ " in " + (System.currentTimeMillis() - start) + " ms");
+	}
+}
@@ -0,0 +1,294 @@
+package player;
+
+import game.BallKeeper;
+import game.Board;
+import game.MoveGenerator;
+import game.Zobrist;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * Solves the end of a game exactly when only a few balls are left on the board.
+ * Every line is searched to the end of the game with alpha-beta, so the score is the exact
+ * final outcome: the points and balls the player to move still gains minus the ones the opponent gains,
+ * a point weighing AlphaBeta.POINT_WEIGHT balls.
+ * What is still to gain only depends on the board and on how many balls of every color
+ * each player has beyond a multiple of three, so positions are remembered by exactly that,
+ * in a transposition table of their own.
+ * Positions found in an EndgameDatabase are not searched.
+ * A solve can be given a deadline; a solve that runs out of time gives up without a result
+ * and keeps only the positions it finished in its table.
+ */
+
+public class EndgameSolver {
+	/** Default size of the transposition table in megabytes. */
+	static final int TABLE_MB = 16;
+	/** Most moves a game can still take: every move collects at least two of the 49 balls. */
+	static final int MAX_PLY = 32;
+	/** The clock is read every CLOCK_INTERVAL + 1 positions; positions with only double moves are slow to expand. */
+	static final int CLOCK_INTERVAL = 63;
+	
+	/** The remembered results. */
+	TranspositionTable table;
+	/** The balls collected in the current line, as handed to solve. */
+	BallKeeper bk;
+	/** The number of positions visited by the last solve. */
+	long nodes;
+	/** The exact score of the best root move of the last solve. */
+	int score;
+	/** Buffers for the double moves per ply. */
+	long[][] doubleMoveBuffers;
+	/** The database of solved positions, null if there is none. */
+	EndgameDatabase database;
+	/** The time at which to give up, in milliseconds, 0 for none. */
+	long deadline;
+	/** Whether the last solve ran out of time. */
+	boolean stopped;
+	
+	/**
+	 * Constructs a solver with a 16 MB transposition table.
+	 */
+	public EndgameSolver() {
+		this(new TranspositionTable(TABLE_MB));
+	}
+	
+	/**
+	 * Constructs a solver using the given transposition table.
+	 * The table must not be shared with a depth limited search, as the keys differ.
+	 * @param table
+	 */
+	public EndgameSolver(TranspositionTable table) {
+		this.table = table;
+		doubleMoveBuffers = new long[MAX_PLY + 1][MoveGenerator.DOUBLE_MOVE_WORDS];
+	}
+	
+	/**
+	 * Sets the database of solved positions to look positions up in.
+	 * @param database null for none
+	 */
+	public void setDatabase(EndgameDatabase database) {
+		this.database = database;
+	}
+	
+	/**
+	 * Sets the time at which a solve gives up.
+	 * @param deadline in milliseconds as by System.currentTimeMillis, 0 for none
+	 */
+	public void setDeadline(long deadline) {
+		this.deadline = deadline;
+	}
+	
+	/**
+	 * Returns whether the last solve ran out of time, so its result is meaningless.
+	 * @return stopped
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+	
+	/**
+	 * Returns the number of positions visited by the last solve.
+	 * @return nodes
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+	
+	/**
+	 * Returns the exact score of the best root move of the last solve,
+	 * seen from the player to move at the root.
+	 * @return points still to gain times AlphaBeta.POINT_WEIGHT plus balls still to gain, minus the opponent's
+	 */
+	public int getScore() {
+		return score;
+	}
+	
+	/**
+	 * Returns the best of the given root moves.
+	 * The board and the ball keeper are the same afterwards.
+	 * @param board
+	 * @param ballKeeper balls collected so far
+	 * @param player index of the player to move
+	 * @param firsts the root moves, or the first halves of the double moves
+	 * @param seconds the second halves of the double moves, null for single moves
+	 * @return index of the best root move, -1 if the solve ran out of time
+	 */
+	public int solveRoot(Board board, BallKeeper ballKeeper, int player, int[] firsts, int[] seconds) {
+		bk = ballKeeper;
+		nodes = 0;
+		stopped = false;
+		int alpha = -AlphaBeta.INFINITY;
+		int best = 0;
+		for (int i = 0; i < firsts.length; i++) {
+			int move = seconds == null ? firsts[i]
+					: MoveGenerator.MOVES + firsts[i] * MoveGenerator.MOVES + seconds[i];
+			int value = solveMove(board, move, player, 0, alpha, AlphaBeta.INFINITY);
+			if (stopped) {
+				return -1;
+			}
+			if (value > alpha) {
+				alpha = value;
+				best = i;
+			}
+		}
+		score = alpha;
+		return best;
+	}
+	
+	/**
+	 * Returns the exact score of a position for the player to move.
+	 * The board and the ball keeper are the same afterwards.
+	 * @param board
+	 * @param ballKeeper balls collected so far
+	 * @param player index of the player to move
+	 * @return points still to gain times AlphaBeta.POINT_WEIGHT plus balls still to gain, minus the opponent's
+	 */
+	public int solve(Board board, BallKeeper ballKeeper, int player) {
+		bk = ballKeeper;
+		nodes = 0;
+		stopped = false;
+		score = solve(board, player, 0, -AlphaBeta.INFINITY, AlphaBeta.INFINITY,
+				database != null && database.isEntry(0, Long.bitCount(board.getOccupied())));
+		return score;
+	}
+	
+	/**
+	 * Does a move, scores what it gains and solves the position after it.
+	 * @param board
+	 * @param move single move, or MoveGenerator.MOVES plus a double move index
+	 * @param player index of the player doing the move
+	 * @param ply distance from the root
+	 * @param alpha
+	 * @param beta
+	 * @return score of the move for the player
+	 */
+	int solveMove(Board board, int move, int player, int ply, int alpha, int beta) {
+		int before = bk.getScore(player);
+		int balls = Long.bitCount(board.getOccupied());
+		long collected = MonteCarlo.play(board, bk, move, player);
+		int gain = bk.getScore(player) - before;
+		//the moves of the root count as the start of the line
+		boolean probe = database != null && database.isEntry(ply == 0 ? 0 : balls, Long.bitCount(board.getOccupied()));
+		int value = gain - solve(board, 1 - player, ply + 1, gain - beta, gain - alpha, probe);
+		MonteCarlo.undo(board, bk, collected, player);
+		return value;
+	}
+	
+	/**
+	 * Returns the exact score of the position for the player to move, with negamax and alpha-beta pruning.
+	 * A score outside the window is only a bound, and stored as one.
+	 * @param board
+	 * @param player index of the player to move
+	 * @param ply distance from the root
+	 * @param alpha
+	 * @param beta
+	 * @param probe whether to look the position up in the database
+	 * @return score
+	 */
+	int solve(Board board, int player, int ply, int alpha, int beta, boolean probe) {
+		nodes++;
+		if (deadline != 0 && (nodes & CLOCK_INTERVAL) == 0 && System.currentTimeMillis() >= deadline) {
+			stopped = true;
+		}
+		if (stopped) {
+			return 0;
+		}
+		long key = key(board, player);
+		long data = table.probe(key);
+		int tableMove = TranspositionTable.NO_MOVE;
+		if (data != 0) {
+			int stored = TranspositionTable.getScore(data);
+			int bound = TranspositionTable.getBound(data);
+			if (bound == TranspositionTable.EXACT
+					|| bound == TranspositionTable.LOWER && stored >= beta
+					|| bound == TranspositionTable.UPPER && stored <= alpha) {
+				return stored;
+			}
+			tableMove = TranspositionTable.getMove(data);
+		}
+		if (probe) {
+			int exact = database.getScore(board, bk, player);
+			if (exact != EndgameDatabase.NOT_FOUND) {
+				table.store(key, TranspositionTable.MAX_DEPTH, TranspositionTable.EXACT, exact, TranspositionTable.NO_MOVE);
+				return exact;
+			}
+		}
+		int singleMoves = MoveGenerator.getSingleMoves(board);
+		long[] doubleMoves = null;
+		if (singleMoves == 0) {
+			doubleMoves = doubleMoveBuffers[ply];
+			MoveGenerator.getDoubleMoves(board, doubleMoves);
+			if (MoveGenerator.isEmpty(doubleMoves)) {
+				//game over, nothing left to gain
+				return 0;
+			}
+		}
+		int from = alpha;
+		int best = -AlphaBeta.INFINITY;
+		int bestMove = TranspositionTable.NO_MOVE;
+		//the remembered best move first, then the rest in order
+		int move = tableMove;
+		int next = 0;
+		while (true) {
+			if (move == TranspositionTable.NO_MOVE) {
+				if (singleMoves != 0) {
+					if (next >= MoveGenerator.MOVES) {
+						break;
+					}
+					int rest = singleMoves >>> next;
+					if (rest == 0) {
+						break;
+					}
+					move = next + Integer.numberOfTrailingZeros(rest);
+				} else {
+					int index = MoveGenerator.nextDoubleMove(doubleMoves, next);
+					if (index < 0) {
+						break;
+					}
+					move = MoveGenerator.MOVES + index;
+				}
+				next = (move < MoveGenerator.MOVES ? move : move - MoveGenerator.MOVES) + 1;
+				if (move == tableMove) {
+					move = TranspositionTable.NO_MOVE;
+					continue;
+				}
+			}
+			int value = solveMove(board, move, player, ply, alpha, beta);
+			if (stopped) {
+				//nothing of an unfinished position goes into the table
+				return 0;
+			}
+			if (value > best) {
+				best = value;
+				bestMove = move;
+				if (value > alpha) {
+					alpha = value;
+					if (alpha >= beta) {
+						break;
+					}
+				}
+			}
+			move = TranspositionTable.NO_MOVE;
+		}
+		int bound = best >= beta ? TranspositionTable.LOWER
+				: best > from ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+		table.store(key, TranspositionTable.MAX_DEPTH, bound, best, bestMove);
+		return best;
+	}
+	
+	/**
+	 * Returns the key of a position: the board and, per color, the balls beyond a multiple of three
+	 * of the player to move and of the opponent.
+	 * @param board
+	 * @param player index of the player to move
+	 * @return key
+	 */
+	long key(Board board, int player) {
+		long key = board.getHash();
+		for (int c = 1; c < 7; c++) {
+			key ^= Zobrist.count(BallKeeper.PLAYER1, c, bk.getNumOfBalls(player, c) % 3)
+					^ Zobrist.count(BallKeeper.PLAYER2, c, bk.getNumOfBalls(1 - player, c) % 3);
+		}
+		return key;
+	}
+}
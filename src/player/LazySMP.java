@@ -0,0 +1,244 @@
+package player;
+
+import game.BallKeeper;
+import game.Board;
+import game.MoveGenerator;
+import game.Tuple;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * A parallel alpha-beta strategy for the AI player.
+ * Helper threads search the same root moves as the main search, deepening on their own
+ * from staggered depths and with different root moves first.
+ * All searches share one transposition table, which is the only way the helpers help:
+ * the main search finds their results in the table and the move it finds is the one played.
+ * At a fixed level the helpers search no deeper than the level, so the move found is as good
+ * at that level as the serial search's; with a time limit they deepen until the main search is done.
+ * The number of threads, the level and the time per move can be set.
+ * Pondering on the opponent's time is left to the main search.
+ */
+public class LazySMP implements Strategy, Ponderer {
+	
+	/** The number of searching threads, the main search included. */
+	int threads;
+	/** The main search, which reports the move. */
+	AlphaBeta main;
+	/** The number of positions visited by the last search, over all threads. */
+	long nodes;
+	
+	/**
+	 * Constructs a Lazy SMP strategy with a thread per core, a 16 MB transposition table
+	 * and default level of 4.
+	 */
+	public LazySMP() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Constructs a Lazy SMP strategy with the given number of threads, a 16 MB transposition table
+	 * and default level of 4.
+	 * @param threads the number of searching threads, the main search included
+	 */
+	public LazySMP(int threads) {
+		this.threads = Math.max(1, threads);
+		main = new AlphaBeta();
+	}
+	
+	/**
+	 * Sets the number of plies the main search searches.
+	 * @param level
+	 */
+	public void setLevel(int level) {
+		main.setLevel(level);
+	}
+	
+	/**
+	 * Sets the time the main search may use per move.
+	 * @param millis time per move, 0 to use the level again
+	 */
+	public void setTimeLimit(long millis) {
+		main.setTimeLimit(millis);
+	}
+	
+	/**
+	 * Sets the number of searching threads, the main search included.
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Sets the number of balls left on the board at which the main search solves the endgame exactly.
+	 * @param balls on the board, 0 to never solve
+	 */
+	public void setEndgameBalls(int balls) {
+		main.setEndgameBalls(balls);
+	}
+	
+	/**
+	 * Sets the database of solved endgame positions used by all searches.
+	 * @param database null for none
+	 */
+	public void setEndgameDatabase(EndgameDatabase database) {
+		main.setEndgameDatabase(database);
+	}
+	
+	/**
+	 * Sets the transposition table shared by all searches.
+	 * @param table
+	 */
+	public void setTranspositionTable(TranspositionTable table) {
+		main.setTranspositionTable(table);
+	}
+	
+	/**
+	 * Sets the balls collected so far, the AI being player 1.
+	 * @param ballKeeper
+	 */
+	public void setBallKeeper(BallKeeper ballKeeper) {
+		main.setBallKeeper(ballKeeper);
+	}
+	
+	/**
+	 * Uses the balls collected in the game so far, the transposition table
+	 * and the move ordering kept by the context; the helpers share the table as well.
+	 * @param context
+	 */
+	@Override
+	public void setSearchContext(SearchContext context) {
+		main.setSearchContext(context);
+	}
+	
+	/**
+	 * Returns the number of positions visited by the last search, over all threads.
+	 * @return nodes
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+	
+	/**
+	 * Returns the score of the move found by the main search.
+	 * @return score
+	 */
+	public int getScore() {
+		return main.getScore();
+	}
+	
+	/**
+	 * Returns the depth of the last completed iteration of the main search.
+	 * @return depth
+	 */
+	public int getCompletedDepth() {
+		return main.getCompletedDepth();
+	}
+	
+	/**
+	 * Lets the main search ponder on the opponent's position in the background.
+	 * @param board with the opponent to move
+	 */
+	@Override
+	public void startPondering(Board board) {
+		main.startPondering(board);
+	}
+	
+	/**
+	 * Stops the main search pondering.
+	 */
+	@Override
+	public void stopPondering() {
+		main.stopPondering();
+	}
+	
+	//----------------------------Strategy------------------------------------
+	
+	/**
+	 * Returns the best valid single move found by the main search.
+	 * @param board
+	 * @return move, -1 if there is no single move
+	 */
+	@Override
+	public int determineMove(Board board) {
+		int singleMoves = MoveGenerator.getSingleMoves(board);
+		if (singleMoves == 0) {
+			return -1;
+		}
+		int[] moves = AlphaBeta.toArray(singleMoves);
+		int best = searchParallel(board, moves, null);
+		return moves[best];
+	}
+	
+	/**
+	 * Returns the best valid double move found by the main search.
+	 * @param board
+	 * @return move, null if there is no double move
+	 */
+	@Override
+	public Tuple<Integer, Integer> determineDoubleMove(Board board) {
+		long[] doubleMoves = MoveGenerator.getDoubleMoves(board);
+		if (MoveGenerator.isEmpty(doubleMoves)) {
+			return null;
+		}
+		int[][] halves = AlphaBeta.toArrays(doubleMoves);
+		int best = searchParallel(board, halves[0], halves[1]);
+		return new Tuple<Integer, Integer>(halves[0][best], halves[1][best]);
+	}
+	
+	/**
+	 * Starts the helpers, runs the main search in this thread and stops the helpers when it is done.
+	 * The helper running as thread t, the main search being thread 0,
+	 * starts at depth 1 + t % 2 and tries root move t first.
+	 * An endgame the main search solves exactly gets no helpers.
+	 * @param board
+	 * @param firsts the root moves, or the first halves of the double moves
+	 * @param seconds the second halves of the double moves, null for single moves
+	 * @return index of the best root move
+	 */
+	int searchParallel(Board board, int[] firsts, int[] seconds) {
+		//pondering changes the collections the helpers copy
+		main.stopPondering();
+		if (Long.bitCount(board.getOccupied()) <= main.endgameBalls) {
+			int best = main.deepen(board, firsts, seconds);
+			nodes = main.getNodes();
+			return best;
+		}
+		TranspositionTable table = main.getTable();
+		//deeper results in the table would make the move at a fixed level depend on the timing
+		int maxDepth = main.timeLimit > 0 ? AlphaBeta.MAX_DEPTH : main.level;
+		AlphaBeta[] helpers = new AlphaBeta[threads - 1];
+		Thread[] workers = new Thread[threads - 1];
+		for (int i = 0; i < helpers.length; i++) {
+			AlphaBeta helper = new AlphaBeta(table);
+			helper.setBallKeeper(main.bk.copy());
+			helper.setEndgameDatabase(main.database);
+			Board helperBoard = board.getCopy();
+			int startDepth = 1 + (i + 1) % 2;
+			int offset = i + 1;
+			helpers[i] = helper;
+			workers[i] = new Thread(() -> helper.help(helperBoard, firsts, seconds, startDepth, maxDepth, offset));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		int best = main.deepen(board, firsts, seconds);
+		nodes = main.getNodes();
+		//the helpers stop soon, and must have before their nodes are counted and the table is used again
+		boolean interrupted = false;
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i].stop();
+			while (workers[i].isAlive()) {
+				try {
+					workers[i].join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			nodes += helpers[i].getNodes();
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		return best;
+	}
+}
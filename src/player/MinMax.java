@@ -1,11 +1,8 @@
 package player;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import game.Ball;
 import game.BallKeeper;
 import game.Board;
+import game.MoveGenerator;
 import game.Tuple;
 
 /**
@@ -49,21 +46,20 @@ public class MinMax implements Strategy {
 	@Override
 	public int determineMove(Board board) {
 		
-		List<Integer> singleMoves = getSingleMoves(board);
+		int singleMoves = MoveGenerator.getSingleMoves(board);
 			
-		if (!singleMoves.isEmpty()) {
+		if (singleMoves != 0) {
 			int maxScore = -10;
 			int bestMove = -1;
-			for (int move : singleMoves) {
-				Board testBoard = board.getCopy();
+			for (int moves = singleMoves; moves != 0; moves &= moves - 1) {
+				int move = Integer.numberOfTrailingZeros(moves);
 				BallKeeper testBK = bk.copy();
-				testBoard.doMove(move);
-				for (Ball b : testBoard.checkNeighbours(testBoard)) {
-					b.remove();
-					testBK.addBall(b, "p1");
-					
-				}
-				int score  = minMax(false, 0, testBoard, testBK);
+				board.doMove(move);
+				long found = board.getNeighbourMask(Board.getLineMask(move));
+				testBK.addBalls(BallKeeper.PLAYER1, board, found);
+				board.removeBalls(found);
+				int score  = minMax(false, 0, board, testBK);
+				board.undoMove();
 				if (score > maxScore) {
 					maxScore = score;
 					bestMove = move;
@@ -83,23 +79,26 @@ public class MinMax implements Strategy {
 	@Override
 	public Tuple<Integer, Integer> determineDoubleMove(Board board) {
 		
-		List<Tuple<Integer, Integer>> doubleMoves = getDoubleMoves(board);
+		long[] doubleMoves = MoveGenerator.getDoubleMoves(board);
 		
-		if (!doubleMoves.isEmpty()) {
+		if (!MoveGenerator.isEmpty(doubleMoves)) {
 			int maxScore = -10;
 			Tuple<Integer, Integer> bestMove = null;
-			for (Tuple<Integer, Integer> move : doubleMoves) {
-				Board testBoard = board.getCopy();
+			for (int m = MoveGenerator.nextDoubleMove(doubleMoves, 0); m >= 0; m = MoveGenerator.nextDoubleMove(doubleMoves, m + 1)) {
+				int first = MoveGenerator.first(m);
+				int second = MoveGenerator.second(m);
 				BallKeeper testBK = bk.copy();
-				testBoard.doMove(move);
-				for (Ball b : testBoard.checkNeighbours(testBoard)) {
-					b.remove();
-					testBK.addBall(b, "p1");
-				}
-				int score  = minMax(false, 0, testBoard, testBK);
+				board.doMove(first);
+				board.doMove(second);
+				long found = board.getNeighbourMask(Board.getLineMask(first) | Board.getLineMask(second));
+				testBK.addBalls(BallKeeper.PLAYER1, board, found);
+				board.removeBalls(found);
+				int score  = minMax(false, 0, board, testBK);
+				board.undoMove();
+				board.undoMove();
 				if (score > maxScore) {
 					maxScore = score;
-					bestMove = move;
+					bestMove = new Tuple<Integer, Integer>(first, second);
 				}
 			}
 			return bestMove;
@@ -120,37 +119,32 @@ public class MinMax implements Strategy {
 	int minMax(boolean player1, int depth, Board board, BallKeeper ballKeeper) {
 		int d = depth + 1;
 		if (d <= level * 2) {
-			List<Integer> singleMoves = getSingleMoves(board);
-			if (!singleMoves.isEmpty()) {
-				for (int move : singleMoves) {
-					Board testBoard = board.getCopy();
+			int singleMoves = MoveGenerator.getSingleMoves(board);
+			if (singleMoves != 0) {
+				for (int moves = singleMoves; moves != 0; moves &= moves - 1) {
+					int move = Integer.numberOfTrailingZeros(moves);
 					BallKeeper testBK = ballKeeper.copy();
-					testBoard.doMove(move);
-					for (Ball b : testBoard.checkNeighbours(testBoard)) {
-						b.remove();
-						if (player1) {
-							ballKeeper.addBall(b, "p1");
-						} else {
-							ballKeeper.addBall(b, "p2");
-						}
-					}
+					board.doMove(move);
+					long found = board.getNeighbourMask(Board.getLineMask(move));
+					ballKeeper.addBalls(player1 ? BallKeeper.PLAYER1 : BallKeeper.PLAYER2, board, found);
+					board.removeBalls(found);
+					board.undoMove();
 					minMax(!player1, d, board, testBK);
 				}
 			} else {
-				List<Tuple<Integer, Integer>> doubleMoves = getDoubleMoves(board);
-				if (!doubleMoves.isEmpty()) {
-					for (Tuple<Integer, Integer> move : doubleMoves) {
-						Board testBoard = board.getCopy();
+				long[] doubleMoves = MoveGenerator.getDoubleMoves(board);
+				if (!MoveGenerator.isEmpty(doubleMoves)) {
+					for (int m = MoveGenerator.nextDoubleMove(doubleMoves, 0); m >= 0; m = MoveGenerator.nextDoubleMove(doubleMoves, m + 1)) {
+						int first = MoveGenerator.first(m);
+						int second = MoveGenerator.second(m);
 						BallKeeper testBK = ballKeeper.copy();
-						testBoard.doMove(move);
-						for (Ball b : testBoard.checkNeighbours(testBoard)) {
-							b.remove();
-							if (player1) {
-								ballKeeper.addBall(b, "p1");
-							} else {
-								ballKeeper.addBall(b, "p2");
-							}
-						}
+						board.doMove(first);
+						board.doMove(second);
+						long found = board.getNeighbourMask(Board.getLineMask(first) | Board.getLineMask(second));
+						ballKeeper.addBalls(player1 ? BallKeeper.PLAYER1 : BallKeeper.PLAYER2, board, found);
+						board.removeBalls(found);
+						board.undoMove();
+						board.undoMove();
 						minMax(!player1, d++,  board, testBK);
 					}
 				}
@@ -168,51 +162,9 @@ public class MinMax implements Strategy {
 	 */
 	int determineScore(BallKeeper ballKeeper) {
 		
-		int score = ballKeeper.getPoints("p1") * ballKeeper.getPoints("p1") 
-				+ ballKeeper.getNumOfBalls("p1");
+		int points = ballKeeper.getPoints(BallKeeper.PLAYER1);
+		int score = points * points + ballKeeper.getNumOfBalls(BallKeeper.PLAYER1);
 		
 		return score;
 	}
-
-	/**
-	 * Returns a list of valid single moves that can be applied to the main board.
-	 * @return List of moves.
-	 */
-	public List<Integer> getSingleMoves(Board board) {
-		List<Integer> validMoves = new ArrayList<Integer>();
-		
-		
-		for (int i = 0; i < board.boardSize * 4; i++) {
-			Board testBoard = board.getCopy();
-			testBoard.doMove(i);
-			if (!board.checkNeighbours(testBoard).isEmpty()) {
-				validMoves.add(i);
-			}
-		}
-		
-		return validMoves;
-	}
-	
-	/**
-	 * Returns a list of valid double moves that can be applied to the main board.
-	 * @return List of moves.
-	 */
-	public List<Tuple<Integer, Integer>> getDoubleMoves(Board board) {
-		List<Tuple<Integer, Integer>> validMoves = new ArrayList<Tuple<Integer, Integer>>();
-		
-		for (int i = 0; i < board.boardSize * 4; i++) {
-			Board testBoard1 = board.getCopy();
-			testBoard1.doMove(i);
-			for (int o = 0; o < board.boardSize * 4; o++) {
-				Board testBoard2 = testBoard1.getCopy();
-				testBoard2.doMove(o);
-				if (!board.checkNeighbours(testBoard2).isEmpty()) {
-					validMoves.add(new Tuple<Integer, Integer>(i, o));
-				}
-			}
-		}
-		
-		return validMoves;
-	}
-
 }
@@ -1,157 +1,101 @@
 package player;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import game.Ball;
 import game.BallKeeper;
 import game.Board;
-import game.Tuple;
+import game.MoveGenerator;
 
 /**
  * 
  * @author Kai Ferdelman
- *
+ * Searches the subtree of a single root move, as one task of a parallel root search.
+ * Every task works on its own copies of the board and the BallKeeper.
+ * The best score found so far by any task is shared and read again at every move
+ * of the position after the root move, so a task stops as soon as it can no longer
+ * beat the best move found by the others.
  */
 
-public class MinMaxThread implements Runnable {
+public class MinMaxThread extends RecursiveTask<Integer> {
 
-	/** The desired depth the algorithm should go to. */
-	int level;
-	/** The score of the corresponding move. */
-	int score;
-	/** The board used to test the move. */
+	private static final long serialVersionUID = 1L;
+	
+	/** The number of plies to search, the root move included. */
+	int depth;
+	/** The board the root move is done on. */
 	Board testBoard;
-	/** The ball keeper used to test the move. */
-	BallKeeper bk;
+	/** The search used for the subtree. */
+	AlphaBeta search;
+	/** The root move, or the first half of a double move. */
+	int first;
+	/** The second half of a double move, -1 for a single move. */
+	int second;
+	/** The best score found so far by all tasks of the root search. */
+	AtomicInteger bound;
+	/** Whether the score is exact, instead of an upper bound not better than the shared bound. */
+	boolean exact;
 	
 	/**
-	 * Constructs an instance of the MinMax thread to test a single move.
-	 * @param level
-	 * @param testBoard
-	 * @param bk
+	 * Constructs a task searching a single root move.
+	 * @param depth the number of plies to search, the root move included
+	 * @param testBoard own copy of the board
+	 * @param bk own copy of the BallKeeper, player 1 being the AI
+	 * @param table the transposition table shared by all tasks
+	 * @param first the root move, or the first half of a double move
+	 * @param second the second half of a double move, -1 for a single move
+	 * @param bound the best score found so far, shared by all tasks
 	 */
-	public MinMaxThread(int level, Board testBoard, BallKeeper bk) {
-		this.level = level;
+	public MinMaxThread(int depth, Board testBoard, BallKeeper bk, TranspositionTable table,
+			int first, int second, AtomicInteger bound) {
+		this.depth = depth;
 		this.testBoard = testBoard;
-		this.bk = bk;
-		score = -1;
-	}
-	
-	@Override
-	public void run() {
-		score = minMax(false, 0, testBoard, bk);
+		this.first = first;
+		this.second = second;
+		this.bound = bound;
+		search = new AlphaBeta(table);
+		search.setBallKeeper(bk);
 	}
 	
 	/**
-	 * Returns a score for the move it is applied on.
-	 * Uses a recursive algorithm that terminates either when no more moves are available,
-	 * or when maximum depth has been reached.
-	 * @param player1 is it player 1s turn or not
-	 * @param depth how many recursions have been made
-	 * @param board of the previous depth
-	 * @param ballKeeper of the previous depth 
-	 * @return score
+	 * Does the root move and searches the position after it.
+	 * @return score of the root move for the AI
 	 */
-	synchronized int minMax(boolean player1, int depth, Board board, BallKeeper ballKeeper) {
-		int d = depth + 1;
-		if (d <= level * 2) {
-			List<Integer> singleMoves = getSingleMoves(board);
-			if (!singleMoves.isEmpty()) {
-				for (int move : singleMoves) {
-					Board testB = board.getCopy();
-					BallKeeper testBK = ballKeeper.copy();
-					testB.doMove(move);
-					for (Ball b : testB.checkNeighbours(testB)) {
-						b.remove();
-						if (player1) {
-							ballKeeper.addBall(b, "p1");
-						} else {
-							ballKeeper.addBall(b, "p2");
-						}
-					}
-					minMax(!player1, d, board, testBK);
-				}
-			} else {
-				List<Tuple<Integer, Integer>> doubleMoves = getDoubleMoves(board);
-				if (!doubleMoves.isEmpty()) {
-					for (Tuple<Integer, Integer> move : doubleMoves) {
-						Board testB = board.getCopy();
-						BallKeeper testBK = ballKeeper.copy();
-						testB.doMove(move);
-						for (Ball b : testB.checkNeighbours(testB)) {
-							b.remove();
-							if (player1) {
-								ballKeeper.addBall(b, "p1");
-							} else {
-								ballKeeper.addBall(b, "p2");
-							}
-						}
-						minMax(!player1, d, board, testBK);
-					}
-				}
-			}
+	@Override
+	protected Integer compute() {
+		long changed = Board.getLineMask(first);
+		testBoard.doMove(first);
+		if (second >= 0) {
+			changed |= Board.getLineMask(second);
+			testBoard.doMove(second);
 		}
-		return determineScore(ballKeeper);
+		int score = -search.searchAfter(testBoard, changed, BallKeeper.PLAYER1, depth - 1, bound);
+		exact = score > search.getRootAlpha();
+		bound.accumulateAndGet(score, Math::max);
+		return score;
 	}
 	
 	/**
-	 * Calculates the score of a move.
-	 * Checks the BallKeeper for collected Balls.
-	 * Points are squared and added to number of balls.
-	 * @param ballKeeper
-	 * @return score
+	 * Returns the root move of the task.
+	 * @return single move, or MoveGenerator.MOVES plus a double move index
 	 */
-	synchronized int determineScore(BallKeeper ballKeeper) {
-		
-		int points = ballKeeper.getPoints("p1") * ballKeeper.getPoints("p1")
-				+ ballKeeper.getNumOfBalls("p1");
-		
-		return points;
+	public int getMove() {
+		return second < 0 ? first : MoveGenerator.MOVES + first * MoveGenerator.MOVES + second;
 	}
 	
 	/**
-	 * Returns a list of valid single moves that can be applied to the main board.
-	 * @return List of moves.
+	 * Returns whether the score of the task is exact.
+	 * @return exact
 	 */
-	public synchronized List<Integer> getSingleMoves(Board board) {
-		List<Integer> validMoves = new ArrayList<Integer>();
-		
-		
-		for (int i = 0; i < board.boardSize * 4; i++) {
-			Board testB = board.getCopy();
-			testB.doMove(i);
-			if (!board.checkNeighbours(testB).isEmpty()) {
-				validMoves.add(i);
-			}
-		}
-		
-		return validMoves;
+	public boolean isExact() {
+		return exact;
 	}
 	
 	/**
-	 * Returns a list of valid double moves that can be applied to the main board.
-	 * @return List of moves.
+	 * Returns the number of positions visited by the task.
+	 * @return nodes
 	 */
-	public synchronized List<Tuple<Integer, Integer>> getDoubleMoves(Board board) {
-		List<Tuple<Integer, Integer>> validMoves = new ArrayList<Tuple<Integer, Integer>>();
-		
-		for (int i = 0; i < board.boardSize * 4; i++) {
-			Board testBoard1 = board.getCopy();
-			testBoard1.doMove(i);
-			for (int o = 0; o < board.boardSize * 4; o++) {
-				Board testBoard2 = testBoard1.getCopy();
-				testBoard2.doMove(o);
-				if (!board.checkNeighbours(testBoard2).isEmpty()) {
-					validMoves.add(new Tuple<Integer, Integer>(i, o));
-				}
-			}
-		}
-		
-		return validMoves;
-	}
-	
-	public synchronized int getScore() {
-		return score;
+	public long getNodes() {
+		return search.getNodes();
 	}
 }
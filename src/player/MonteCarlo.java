@@ -0,0 +1,321 @@
+package player;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import game.BallKeeper;
+import game.Board;
+import game.MoveGenerator;
+import game.Tuple;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * A Monte Carlo tree search strategy for the AI player.
+ * Every iteration descends the tree by UCT, adds one node and plays random moves
+ * from there until the game is over; the winner is counted in all nodes on the way.
+ * Moves are done and undone on the board itself, nothing is copied per playout.
+ * All threads grow the same tree, see MonteCarloNode for the virtual loss that spreads them out.
+ * The search runs until the time per move is up or the number of playouts is reached,
+ * and the most visited move is played.
+ * With a SearchContext the tree is kept over the game: the search goes on
+ * in the subtree of the position reached by the moves played since.
+ */
+public class MonteCarlo implements Strategy {
+	
+	/** Default time per move in milliseconds. */
+	static final long DEFAULT_TIME = 1000;
+	/** Most moves a game can still take: every move collects at least two of the 49 balls. */
+	static final int MAX_MOVES = 32;
+	/** Bits used per color to store the number of balls collected by a move. */
+	static final int COUNT_BITS = 6;
+	/** Flag of a collected entry telling the move was a double move. */
+	static final long DOUBLE_FLAG = 1L << 63;
+	
+	/** The number of searching threads. */
+	int threads;
+	/** The time per move in milliseconds, 0 for no limit. */
+	long timeLimit;
+	/** The number of playouts per move, 0 for no limit. */
+	long playoutLimit;
+	/** The balls collected so far, player 1 being the AI. */
+	BallKeeper bk;
+	/** The root of the last search. */
+	MonteCarloNode root;
+	/** The search state kept over the game, null if there is none. */
+	SearchContext context;
+	
+	/**
+	 * Constructs a Monte Carlo strategy with a new BallKeeper, a thread per core
+	 * and a second per move.
+	 */
+	public MonteCarlo() {
+		threads = Runtime.getRuntime().availableProcessors();
+		timeLimit = DEFAULT_TIME;
+		bk = new BallKeeper("p1", "p2");
+	}
+	
+	/**
+	 * Sets the time the search may use per move.
+	 * @param millis time per move, 0 for no limit
+	 */
+	public void setTimeLimit(long millis) {
+		timeLimit = millis;
+	}
+	
+	/**
+	 * Sets the number of playouts per move.
+	 * @param playouts number of playouts, 0 for no limit
+	 */
+	public void setPlayoutLimit(long playouts) {
+		playoutLimit = playouts;
+	}
+	
+	/**
+	 * Sets the number of searching threads.
+	 * @param threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Sets the balls collected so far, the AI being player 1.
+	 * @param ballKeeper
+	 */
+	public void setBallKeeper(BallKeeper ballKeeper) {
+		bk = ballKeeper;
+	}
+	
+	/**
+	 * Uses the balls collected in the game so far and keeps the tree in the context.
+	 * @param context
+	 */
+	@Override
+	public void setSearchContext(SearchContext context) {
+		this.context = context;
+		bk = context.getBallKeeper();
+	}
+	
+	/**
+	 * Returns the number of playouts in the tree of the last search,
+	 * including the ones of earlier searches it was kept from.
+	 * @return playouts
+	 */
+	public int getPlayouts() {
+		return root == null ? 0 : root.getVisits();
+	}
+	
+	/**
+	 * Returns the share of playouts the AI won with the move of the last search, draws counting half.
+	 * @return value between 0 and 1
+	 */
+	public double getValue() {
+		return root == null || !root.isExpanded() || root.isTerminal() ? 0 : root.getMostVisited().getValue();
+	}
+	
+	//----------------------------Strategy------------------------------------
+	
+	/**
+	 * Returns the most visited single move.
+	 * @param board
+	 * @return move, -1 if there is no single move
+	 */
+	@Override
+	public int determineMove(Board board) {
+		if (MoveGenerator.getSingleMoves(board) == 0) {
+			return -1;
+		}
+		return search(board).move;
+	}
+	
+	/**
+	 * Returns the most visited double move.
+	 * @param board
+	 * @return move, null if there is no double move
+	 */
+	@Override
+	public Tuple<Integer, Integer> determineDoubleMove(Board board) {
+		if (MoveGenerator.getSingleMoves(board) != 0 || !MoveGenerator.hasDoubleMove(board)) {
+			return null;
+		}
+		int index = search(board).move - MoveGenerator.MOVES;
+		return new Tuple<Integer, Integer>(MoveGenerator.first(index), MoveGenerator.second(index));
+	}
+	
+	/**
+	 * Grows the tree for the board with all threads and returns the most visited root move.
+	 * The tree kept in the context is grown further, otherwise a new one is started.
+	 * The board is the same afterwards.
+	 * @param board with at least one move left
+	 * @return most visited child of the root
+	 */
+	MonteCarloNode search(Board board) {
+		MonteCarloNode kept = context == null ? null : context.getTree();
+		MonteCarloNode tree = kept != null ? kept : new MonteCarloNode(-1);
+		tree.expand(board);
+		AtomicLong budget = new AtomicLong(playoutLimit > 0 ? playoutLimit : Long.MAX_VALUE);
+		long deadline = timeLimit > 0 ? System.currentTimeMillis() + timeLimit : Long.MAX_VALUE;
+		Thread[] workers = new Thread[threads - 1];
+		for (int i = 0; i < workers.length; i++) {
+			Board copy = board.getCopy();
+			BallKeeper keeper = bk.copy();
+			workers[i] = new Thread(() -> run(tree, copy, keeper, budget, deadline));
+			workers[i].setDaemon(true);
+			workers[i].start();
+		}
+		run(tree, board, bk.copy(), budget, deadline);
+		//the workers stop at the same budget and time, and must have before the tree is handed on
+		boolean interrupted = false;
+		for (Thread worker : workers) {
+			while (worker.isAlive()) {
+				try {
+					worker.join();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		root = tree;
+		if (context != null) {
+			context.setTree(tree);
+		}
+		return tree.getMostVisited();
+	}
+	
+	/**
+	 * Runs iterations on the tree until the budget or the time is used up.
+	 * @param tree root of the tree
+	 * @param board position of the root, owned by this thread
+	 * @param keeper collections of the root, owned by this thread
+	 * @param budget playouts left over all threads
+	 * @param deadline time to stop at
+	 */
+	void run(MonteCarloNode tree, Board board, BallKeeper keeper, AtomicLong budget, long deadline) {
+		Random random = new Random();
+		long[] collected = new long[MAX_MOVES];
+		long[] doubleMoves = new long[MoveGenerator.DOUBLE_MOVE_WORDS];
+		MonteCarloNode[] path = new MonteCarloNode[MAX_MOVES];
+		while (budget.getAndDecrement() > 0 && System.currentTimeMillis() < deadline) {
+			iterate(tree, board, keeper, random, collected, doubleMoves, path);
+		}
+	}
+	
+	/**
+	 * Runs one iteration: selection, expansion, a random playout and the update of the path.
+	 * The board and the keeper are back at the root position afterwards.
+	 * @param tree root of the tree
+	 * @param board position of the root
+	 * @param keeper collections of the root
+	 * @param random
+	 * @param collected buffer for the balls collected by every move
+	 * @param doubleMoves buffer for the double moves of the playout
+	 * @param path buffer for the nodes visited below the root
+	 */
+	void iterate(MonteCarloNode tree, Board board, BallKeeper keeper, Random random,
+			long[] collected, long[] doubleMoves, MonteCarloNode[] path) {
+		int player = BallKeeper.PLAYER1;
+		int moves = 0;
+		int depth = 0;
+		MonteCarloNode node = tree;
+		node.visit();
+		while (true) {
+			boolean leaf = !node.isExpanded();
+			node.expand(board);
+			MonteCarloNode child = node.select();
+			if (child == null) {
+				break;
+			}
+			collected[moves++] = play(board, keeper, child.move, player);
+			player = 1 - player;
+			path[depth++] = child;
+			node = child;
+			if (leaf) {
+				break;
+			}
+		}
+		while (moves < MAX_MOVES) {
+			int singleMoves = MoveGenerator.getSingleMoves(board);
+			int move;
+			if (singleMoves != 0) {
+				move = MoveGenerator.nthMove(singleMoves, random.nextInt(Integer.bitCount(singleMoves)));
+			} else {
+				MoveGenerator.getDoubleMoves(board, doubleMoves);
+				int count = MoveGenerator.countDoubleMoves(doubleMoves);
+				if (count == 0) {
+					break;
+				}
+				move = MoveGenerator.MOVES + MoveGenerator.nthDoubleMove(doubleMoves, random.nextInt(count));
+			}
+			collected[moves++] = play(board, keeper, move, player);
+			player = 1 - player;
+		}
+		int winner = keeper.getWinnerIndex();
+		for (int i = 0; i < depth; i++) {
+			//the AI moves into the even plies
+			int mover = i % 2 == 0 ? BallKeeper.PLAYER1 : BallKeeper.PLAYER2;
+			path[i].update(winner == -1 ? 0.5 : winner == mover ? 1 : 0);
+		}
+		while (moves > 0) {
+			player = 1 - player;
+			undo(board, keeper, collected[--moves], player);
+		}
+	}
+	
+	/**
+	 * Does a move, collecting its balls for the given player.
+	 * @param board
+	 * @param keeper
+	 * @param move single move, or MoveGenerator.MOVES plus a double move index
+	 * @param player index of the player doing the move
+	 * @return number of balls collected per color, with DOUBLE_FLAG set for a double move
+	 */
+	static long play(Board board, BallKeeper keeper, int move, int player) {
+		long changed;
+		long collected = 0;
+		if (move < MoveGenerator.MOVES) {
+			board.doMove(move);
+			changed = Board.getLineMask(move);
+		} else {
+			int first = MoveGenerator.first(move - MoveGenerator.MOVES);
+			int second = MoveGenerator.second(move - MoveGenerator.MOVES);
+			board.doMove(first);
+			board.doMove(second);
+			changed = Board.getLineMask(first) | Board.getLineMask(second);
+			collected = DOUBLE_FLAG;
+		}
+		long found = board.getNeighbourMask(changed);
+		for (int c = 1; c < 7; c++) {
+			int count = Long.bitCount(board.getColorMask(c) & found);
+			if (count != 0) {
+				keeper.addBalls(player, c, count);
+				collected |= (long) count << (c * COUNT_BITS);
+			}
+		}
+		board.removeBalls(found);
+		return collected;
+	}
+	
+	/**
+	 * Undoes a move done by play, giving its balls back.
+	 * @param board
+	 * @param keeper
+	 * @param collected as returned by play
+	 * @param player index of the player that did the move
+	 */
+	static void undo(Board board, BallKeeper keeper, long collected, int player) {
+		for (int c = 1; c < 7; c++) {
+			int count = (int) (collected >>> (c * COUNT_BITS)) & ((1 << COUNT_BITS) - 1);
+			if (count != 0) {
+				keeper.addBalls(player, c, -count);
+			}
+		}
+		board.undoMove();
+		if ((collected & DOUBLE_FLAG) != 0) {
+			board.undoMove();
+		}
+	}
+}
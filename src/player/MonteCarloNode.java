@@ -0,0 +1,202 @@
+package player;
+
+import java.util.Arrays;
+
+import game.Board;
+import game.MoveGenerator;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * A node of the Monte Carlo search tree.
+ * The node keeps the number of playouts through it and their total result,
+ * seen from the player that did the move leading to it.
+ * Children are created all at once when the node is expanded.
+ * Double moves are ordered by the balls they collect at once and only made available
+ * a few at a time, as the node gets more visits (progressive widening).
+ * Threads share the tree: a thread choosing a child counts its visit at once,
+ * so other threads see it as a lost playout until the result comes in (virtual loss).
+ */
+
+public class MonteCarloNode {
+	/** Weight of the exploration term of UCT. */
+	static final double EXPLORATION = 1.0;
+	/** Number of double move children available at the first visit. */
+	static final double WIDENING = 2.0;
+	/** Growth of the available double move children with the visits. */
+	static final double WIDENING_EXPONENT = 0.5;
+	
+	/** The move leading to this node, a single move or MoveGenerator.MOVES plus a double move index. */
+	final int move;
+	/** The children, null while the node is not expanded. */
+	private volatile MonteCarloNode[] children;
+	/** Whether the children are double moves. */
+	private boolean doubleMoves;
+	/** The number of playouts through this node, including the ones still running. */
+	private volatile int visits;
+	/** The total result of the finished playouts through this node. */
+	private volatile double reward;
+	
+	/**
+	 * Constructs a node.
+	 * Nodes do not know their parent, so a subtree kept for the next move lets the rest of the tree go.
+	 * @param move leading to the node, -1 for the root
+	 */
+	public MonteCarloNode(int move) {
+		this.move = move;
+	}
+	
+	/**
+	 * Returns whether the node has been expanded.
+	 * @return true if expanded
+	 */
+	public boolean isExpanded() {
+		return children != null;
+	}
+	
+	/**
+	 * Returns whether no move is left in the position of the node.
+	 * Only known after expanding.
+	 * @return true if the game is over
+	 */
+	public boolean isTerminal() {
+		return children != null && children.length == 0;
+	}
+	
+	/**
+	 * Creates the children for the moves of the given board, once.
+	 * @param board position of this node
+	 */
+	public synchronized void expand(Board board) {
+		if (children != null) {
+			return;
+		}
+		int singleMoves = MoveGenerator.getSingleMoves(board);
+		MonteCarloNode[] created;
+		if (singleMoves != 0) {
+			created = new MonteCarloNode[Integer.bitCount(singleMoves)];
+			int i = 0;
+			for (int moves = singleMoves; moves != 0; moves &= moves - 1) {
+				created[i++] = new MonteCarloNode(Integer.numberOfTrailingZeros(moves));
+			}
+		} else {
+			long[] doubles = MoveGenerator.getDoubleMoves(board);
+			long[] ordered = new long[MoveGenerator.countDoubleMoves(doubles)];
+			int i = 0;
+			for (int m = MoveGenerator.nextDoubleMove(doubles, 0); m >= 0; m = MoveGenerator.nextDoubleMove(doubles, m + 1)) {
+				int first = MoveGenerator.first(m);
+				int second = MoveGenerator.second(m);
+				board.doMove(first);
+				board.doMove(second);
+				long gain = Long.bitCount(board.getNeighbourMask(Board.getLineMask(first) | Board.getLineMask(second)));
+				board.undoMove();
+				board.undoMove();
+				//most balls first, then the lowest move
+				ordered[i++] = (64 - gain) << 16 | m;
+			}
+			Arrays.sort(ordered);
+			created = new MonteCarloNode[ordered.length];
+			for (i = 0; i < ordered.length; i++) {
+				created[i] = new MonteCarloNode(MoveGenerator.MOVES + (int) (ordered[i] & 0xFFFF));
+			}
+			doubleMoves = true;
+		}
+		children = created;
+	}
+	
+	/**
+	 * Chooses the child to descend into by UCT and counts the visit to it at once.
+	 * Children that were never visited come first.
+	 * For double moves only the first WIDENING * visits ^ WIDENING_EXPONENT children are considered.
+	 * @return child, null if the node has no children
+	 */
+	public synchronized MonteCarloNode select() {
+		MonteCarloNode[] nodes = children;
+		int available = nodes.length;
+		if (doubleMoves) {
+			available = Math.min(available, Math.max(1, (int) (WIDENING * Math.pow(visits, WIDENING_EXPONENT))));
+		}
+		MonteCarloNode best = null;
+		double bestValue = Double.NEGATIVE_INFINITY;
+		double log = Math.log(Math.max(1, visits));
+		for (int i = 0; i < available; i++) {
+			MonteCarloNode child = nodes[i];
+			int n = child.visits;
+			if (n == 0) {
+				best = child;
+				break;
+			}
+			double value = child.reward / n + EXPLORATION * Math.sqrt(log / n);
+			if (value > bestValue) {
+				bestValue = value;
+				best = child;
+			}
+		}
+		if (best != null) {
+			best.visit();
+		}
+		return best;
+	}
+	
+	/**
+	 * Counts a playout through this node before its result is known.
+	 */
+	public synchronized void visit() {
+		visits++;
+	}
+	
+	/**
+	 * Adds the result of a finished playout.
+	 * @param result 1 for a win, 0.5 for a draw and 0 for a loss of the player that moved into the node
+	 */
+	public synchronized void update(double result) {
+		reward += result;
+	}
+	
+	/**
+	 * Returns the child of a move.
+	 * @param move single move, or MoveGenerator.MOVES plus a double move index
+	 * @return child, null if the node is not expanded or has no child for the move
+	 */
+	public MonteCarloNode getChild(int move) {
+		MonteCarloNode[] nodes = children;
+		if (nodes != null) {
+			for (MonteCarloNode child : nodes) {
+				if (child.move == move) {
+					return child;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the child with the most visits.
+	 * @return child, null if the node has no children
+	 */
+	public MonteCarloNode getMostVisited() {
+		MonteCarloNode best = null;
+		for (MonteCarloNode child : children) {
+			if (best == null || child.visits > best.visits) {
+				best = child;
+			}
+		}
+		return best;
+	}
+	
+	/**
+	 * Returns the number of playouts through this node.
+	 * @return visits
+	 */
+	public int getVisits() {
+		return visits;
+	}
+	
+	/**
+	 * Returns the average result of the playouts through this node.
+	 * @return average result
+	 */
+	public double getValue() {
+		return visits == 0 ? 0 : reward / visits;
+	}
+}
@@ -0,0 +1,204 @@
+package player;
+
+import java.util.Arrays;
+
+import game.MoveGenerator;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * Orders the moves of a position for the search, most promising first.
+ * The best move from the transposition table goes first, followed by the killer moves
+ * of the ply (moves that caused a cutoff in a sibling position), then the other moves
+ * by their history (how often and how deep they caused cutoffs anywhere).
+ * Moves are numbered like in the transposition table:
+ * single move m as m and double move index d as MoveGenerator.MOVES + d.
+ */
+
+public class MoveOrdering {
+	/** Number of move numbers, single and double moves. */
+	public static final int MOVE_NUMBERS = MoveGenerator.MOVES + MoveGenerator.DOUBLE_MOVES;
+	/** Number of plies killer moves are kept for. */
+	static final int MAX_PLY = 128;
+	/** Bits of an ordered entry holding the move, the sort key is stored above them. */
+	static final int MOVE_BITS = 10;
+	/** Number of moves picked one by one before the rest is sorted at once. */
+	static final int PICKS = 3;
+	/** Sort key of the transposition table move. */
+	static final long TABLE_KEY = 1L << 42;
+	/** Sort key of the first killer move, the second one gets half of it. */
+	static final long KILLER_KEY = 1L << 41;
+	
+	/** Two killer moves per ply, the newest first. */
+	private final int[][] killers;
+	/** Cutoff counts per move number, weighted by the depth squared. */
+	private final int[] history;
+	
+	/**
+	 * Constructs an empty move ordering.
+	 */
+	public MoveOrdering() {
+		killers = new int[MAX_PLY][2];
+		history = new int[MOVE_NUMBERS];
+		clear();
+	}
+	
+	/**
+	 * Forgets all killer moves and history.
+	 */
+	public void clear() {
+		for (int[] ply : killers) {
+			Arrays.fill(ply, TranspositionTable.NO_MOVE);
+		}
+		Arrays.fill(history, 0);
+	}
+	
+	/**
+	 * Moves the killer moves one ply up after a move has been played in the game,
+	 * so they stay with the positions they were found in.
+	 */
+	public void shift() {
+		for (int ply = 0; ply < MAX_PLY - 1; ply++) {
+			killers[ply][0] = killers[ply + 1][0];
+			killers[ply][1] = killers[ply + 1][1];
+		}
+		Arrays.fill(killers[MAX_PLY - 1], TranspositionTable.NO_MOVE);
+	}
+	
+	/**
+	 * Halves the history, so older cutoffs count less than new ones.
+	 * Called at the start of every search.
+	 */
+	public void age() {
+		for (int i = 0; i < history.length; i++) {
+			history[i] >>= 1;
+		}
+	}
+	
+	/**
+	 * Scores a mask of single moves for ordering.
+	 * @param singleMoves mask of moves
+	 * @param tableMove move from the transposition table, NO_MOVE if there is none
+	 * @param ply distance from the root
+	 * @param out receives the entries, to be taken in order with pick
+	 * @return number of moves
+	 */
+	public int order(int singleMoves, int tableMove, int ply, long[] out) {
+		int count = 0;
+		for (int moves = singleMoves; moves != 0; moves &= moves - 1) {
+			int move = Integer.numberOfTrailingZeros(moves);
+			out[count++] = key(move, tableMove, ply) << MOVE_BITS | move;
+		}
+		return count;
+	}
+	
+	/**
+	 * Scores a set of double moves for ordering.
+	 * @param doubleMoves set of double moves
+	 * @param tableMove move from the transposition table, NO_MOVE if there is none
+	 * @param ply distance from the root
+	 * @param out receives the entries, to be taken in order with pick
+	 * @return number of moves
+	 */
+	public int order(long[] doubleMoves, int tableMove, int ply, long[] out) {
+		int count = 0;
+		for (int m = MoveGenerator.nextDoubleMove(doubleMoves, 0); m >= 0; m = MoveGenerator.nextDoubleMove(doubleMoves, m + 1)) {
+			int move = MoveGenerator.MOVES + m;
+			out[count++] = key(move, tableMove, ply) << MOVE_BITS | move;
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the k-th best move of the entries, k counting up from 0 on every call.
+	 * The first moves are found by a linear scan, as a cutoff often comes early;
+	 * after PICKS moves the remaining entries are sorted once.
+	 * Equal keys give the lower move first.
+	 * @param entries as filled by order
+	 * @param count number of entries
+	 * @param k index of the move to take
+	 * @return move number
+	 */
+	public static int pick(long[] entries, int count, int k) {
+		if (k < PICKS) {
+			int best = k;
+			for (int i = k + 1; i < count; i++) {
+				if (before(entries[i], entries[best])) {
+					best = i;
+				}
+			}
+			long entry = entries[best];
+			entries[best] = entries[k];
+			entries[k] = entry;
+		} else if (k == PICKS) {
+			sort(entries, k, count);
+		}
+		return (int) entries[k] & ((1 << MOVE_BITS) - 1);
+	}
+	
+	/**
+	 * Returns whether entry a is tried before entry b.
+	 * @param a
+	 * @param b
+	 * @return true if a goes first
+	 */
+	private static boolean before(long a, long b) {
+		long keyA = a >>> MOVE_BITS;
+		long keyB = b >>> MOVE_BITS;
+		return keyA > keyB || keyA == keyB && (a & ((1 << MOVE_BITS) - 1)) < (b & ((1 << MOVE_BITS) - 1));
+	}
+	
+	/**
+	 * Records that a move caused a cutoff.
+	 * @param move number
+	 * @param ply distance from the root
+	 * @param depth plies that were left to search
+	 */
+	public void cutoff(int move, int ply, int depth) {
+		if (ply < MAX_PLY && killers[ply][0] != move) {
+			killers[ply][1] = killers[ply][0];
+			killers[ply][0] = move;
+		}
+		history[move] = Math.min(history[move] + depth * depth, Integer.MAX_VALUE >> 1);
+	}
+	
+	/**
+	 * Returns the sort key of a move, higher is tried earlier.
+	 * @param move number
+	 * @param tableMove
+	 * @param ply
+	 * @return key
+	 */
+	private long key(int move, int tableMove, int ply) {
+		if (move == tableMove) {
+			return TABLE_KEY;
+		}
+		if (ply < MAX_PLY) {
+			if (move == killers[ply][0]) {
+				return KILLER_KEY;
+			}
+			if (move == killers[ply][1]) {
+				return KILLER_KEY >> 1;
+			}
+		}
+		return history[move];
+	}
+	
+	/**
+	 * Sorts the entries from index from to to, highest key first.
+	 * Equal keys keep the lower move first.
+	 * @param entries
+	 * @param from
+	 * @param to
+	 */
+	private static void sort(long[] entries, int from, int to) {
+		for (int i = from; i < to; i++) {
+			//flip the move bits so lower moves sort higher among equal keys
+			entries[i] = ~(entries[i] ^ ((1 << MOVE_BITS) - 1));
+		}
+		Arrays.sort(entries, from, to);
+		for (int i = from; i < to; i++) {
+			entries[i] = ~entries[i] ^ ((1 << MOVE_BITS) - 1);
+		}
+	}
+}
@@ -1,23 +1,873 @@
 package player;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import game.BallKeeper;
 import game.Board;
+import game.MoveGenerator;
 import game.Tuple;
 
+/**
+ *
+ * @author Kai Ferdelman
+ * A value and policy network evaluating positions on the CPU.
+ * The input is the board, one of seven inputs per cell set for empty or the color of its ball,
+ * followed by the balls of every color collected by the player to move and by the opponent.
+ * Hidden layers of rectified linear neurons lead to the outputs: the value, the expected
+ * result for the player to move between -1 and 1, and the policy, a preference per single move
+ * and per first and second half of a double move.
+ * Positions are evaluated in batches. The weights of a layer are one flat array, input by input,
+ * so every input adds one contiguous row to the outputs, and each row read is added for four
+ * positions of the batch at once. Inputs that are zero, which are most of the one-hot board
+ * and about half of the hidden neurons, are skipped.
+ * The batch buffers belong to one instance, so a thread evaluates with its own copy,
+ * which shares the weights.
+ * As a strategy it evaluates the position after every move in one batch and plays the best.
+ * The weights are trained by NeuralNetTrainer, which writes a file per generation;
+ * loadLatest reads the newest one.
+ * A quantized copy of a network evaluates with integers instead: the weights of a layer are bytes
+ * sharing one scale, the activations of a hidden layer are bytes sharing one scale calibrated
+ * when quantizing, and the products are summed in ints, the whole batch layer by layer.
+ * Its weight file is a quarter of the size. It evaluates about 1.5 times as many positions
+ * per second as the float network, not the 3 to 4 times integer arithmetic gives natively:
+ * the JIT compiler does not turn products of bytes into vector instructions, so the gain comes
+ * from the smaller weights and from skipping zero activations, and more is out of scope here.
+ */
+
 public class NeuralNet implements Strategy {
+	/** Cells of the board. */
+	public static final int CELLS = 49;
+	/** States of a cell: empty or one of the six colors. */
+	public static final int CELL_STATES = 7;
+	/** Inputs of the board, one per cell and state. */
+	public static final int BOARD_INPUTS = CELLS * CELL_STATES;
+	/** Inputs of the collected balls, per color of the player to move and of the opponent. */
+	public static final int COUNT_INPUTS = 12;
+	/** All inputs. */
+	public static final int INPUTS = BOARD_INPUTS + COUNT_INPUTS;
+	/** Outputs of the policy: the single moves, which are also the first halves of double moves, then the second halves. */
+	public static final int POLICY = 2 * MoveGenerator.MOVES;
+	/** All outputs, the value first. */
+	public static final int OUTPUTS = 1 + POLICY;
+	/** Number of collected balls of a color giving an input of 1. */
+	static final float COUNT_SCALE = 8;
+	/** Default number of hidden layers. */
+	static final int DEFAULT_LAYERS = 2;
+	/** Default number of neurons per hidden layer. */
+	static final int DEFAULT_NEURONS = 64;
+	/** Number of positions the batch buffers hold at first. */
+	static final int DEFAULT_BATCH = 64;
+	/** Bytes of a packed position: the color per cell and the collected balls per color of both players. */
+	public static final int PACKED = CELLS + COUNT_INPUTS;
+	/** First int of every weight file. */
+	static final int MAGIC = 0x434F4E4E;
+	/** Version of the weight file layout. */
+	static final int VERSION = 1;
+	/** Version of the quantized weight file layout. */
+	static final int QUANTIZED_VERSION = 2;
+	/** Extension of weight files. */
+	static final String EXTENSION = ".weights";
+	/** First int of every quantized weight file. */
+	static final int QUANTIZED_MAGIC = 0x434F5138;
+	/** Extension of quantized weight files. */
+	static final String QUANTIZED_EXTENSION = ".int8";
+	/** Largest magnitude of a quantized weight or activation. */
+	static final int QUANTIZED_MAX = 127;
+	/** Integer input of a set board input, so a collected ball is an integer input of 1. */
+	static final int QUANTIZED_ONE = (int) COUNT_SCALE;
+	/** Number of positions the activation scales of a quantized network are calibrated on. */
+	static final int CALIBRATION = 512;
+	/** Most plies played from a full board for a calibration position. */
+	static final int CALIBRATION_PLIES = 40;
 	
+	/** Number of hidden layers. */
 	int layers;
+	/** Number of neurons per hidden layer. */
 	int neurons;
+	/** Width of every layer, the inputs first and the outputs last. */
+	int[] sizes;
+	/** Weights from layer l to l + 1, input by input: weights[l][i * sizes[l + 1] + o]. */
+	float[][] weights;
+	/** Biases of layer l + 1. */
+	float[][] biases;
+	/** Quantized weights, as weights, null if the network is not quantized. */
+	byte[][] quantizedWeights;
+	/** Scale of the quantized weights per layer: a weight is its byte times the scale. */
+	float[] weightScales;
+	/** Scale of the quantized activations of hidden layer l + 1: an activation is its byte times the scale. */
+	float[] activationScales;
+	/** Sums of the integer products of the layer at hand, for a quantized network, position after position. */
+	int[] sums;
+	/** Quantized activations of the hidden layer at hand, position after position. */
+	byte[] quantizedActivations;
+	/** The positions of the batch packed, as a quantized network takes them. */
+	byte[] packedInputs;
+	/** Activations of every layer for the current batch, position after position. */
+	float[][] activations;
+	/** Number of positions the batch buffers hold. */
+	int capacity;
+	/** The balls collected so far, player 1 being the AI. */
+	BallKeeper bk;
+	/** The value of the move played last, for the AI. */
+	float value;
+	/** The training generation of the weights, 0 if untrained. */
+	int generation;
+	
+	/**
+	 * Constructs a network of two hidden layers of 64 neurons with random weights.
+	 */
+	public NeuralNet() {
+		this(DEFAULT_LAYERS, DEFAULT_NEURONS, 0);
+	}
+	
+	/**
+	 * Constructs a network with random weights.
+	 * @param layers number of hidden layers
+	 * @param neurons number of neurons per hidden layer
+	 * @param seed of the weights
+	 */
+	public NeuralNet(int layers, int neurons, long seed) {
+		this(layers, neurons);
+		weights = new float[layers + 1][];
+		Random random = new Random(seed);
+		for (int l = 0; l <= layers; l++) {
+			weights[l] = new float[sizes[l] * sizes[l + 1]];
+			//only one board input per cell is set, so the first layer sees far fewer inputs than it has
+			int fanIn = l == 0 ? CELLS + COUNT_INPUTS : sizes[l];
+			float scale = (float) Math.sqrt(2.0 / fanIn);
+			for (int i = 0; i < weights[l].length; i++) {
+				weights[l][i] = (float) random.nextGaussian() * scale;
+			}
+		}
+	}
+	
+	/**
+	 * Constructs a network with zero biases and no weights yet.
+	 * @param layers number of hidden layers
+	 * @param neurons number of neurons per hidden layer
+	 */
+	NeuralNet(int layers, int neurons) {
+		this.layers = layers;
+		this.neurons = neurons;
+		sizes = new int[layers + 2];
+		sizes[0] = INPUTS;
+		for (int l = 1; l <= layers; l++) {
+			sizes[l] = neurons;
+		}
+		sizes[layers + 1] = OUTPUTS;
+		biases = new float[layers + 1][];
+		for (int l = 0; l <= layers; l++) {
+			biases[l] = new float[sizes[l + 1]];
+		}
+		bk = new BallKeeper("p1", "p2");
+		ensureCapacity(DEFAULT_BATCH);
+	}
+	
+	/**
+	 * Constructs a copy sharing the weights, with batch buffers of its own.
+	 * @param net
+	 */
+	NeuralNet(NeuralNet net) {
+		layers = net.layers;
+		neurons = net.neurons;
+		sizes = net.sizes;
+		weights = net.weights;
+		biases = net.biases;
+		quantizedWeights = net.quantizedWeights;
+		weightScales = net.weightScales;
+		activationScales = net.activationScales;
+		generation = net.generation;
+		bk = new BallKeeper("p1", "p2");
+		ensureCapacity(DEFAULT_BATCH);
+	}
+	
+	/**
+	 * Returns a network sharing the weights of this one, to evaluate on another thread.
+	 * Changes to the weights show in both.
+	 * @return copy
+	 */
+	public NeuralNet copy() {
+		return new NeuralNet(this);
+	}
+	
+	/**
+	 * Returns a copy evaluating with integers, calibrated on positions played randomly from full boards.
+	 * The network itself must not be quantized.
+	 * @return quantized network
+	 */
+	public NeuralNet quantize() {
+		Random random = new Random(0);
+		byte[] packed = new byte[CALIBRATION * PACKED];
+		for (int p = 0; p < CALIBRATION; p++) {
+			Board board = new Board();
+			BallKeeper keeper = new BallKeeper("p1", "p2");
+			for (int i = 0; i < CELLS; i++) {
+				board.setColor(i, 1 + random.nextInt(CELL_STATES - 1));
+			}
+			board.removeBalls(board.getNeighbourMask());
+			int player = 0;
+			int plies = random.nextInt(CALIBRATION_PLIES + 1);
+			for (int ply = 0; ply < plies && MoveGenerator.getSingleMoves(board) != 0; ply++) {
+				int singleMoves = MoveGenerator.getSingleMoves(board);
+				MonteCarlo.play(board, keeper, MoveGenerator.nthMove(singleMoves, random.nextInt(Integer.bitCount(singleMoves))), player);
+				player = 1 - player;
+			}
+			pack(board, keeper, player, packed, p * PACKED);
+		}
+		return quantize(packed, CALIBRATION);
+	}
+	
+	/**
+	 * Returns a copy evaluating with integers, its weights rounded to bytes
+	 * with one scale per layer, so the largest weight of a layer becomes 127.
+	 * The activations of a hidden layer share one scale too, so its largest activation
+	 * over the calibration positions becomes 127; larger ones are clipped to 127 later.
+	 * The network itself must not be quantized.
+	 * @param packed calibration positions, as pack writes them
+	 * @param count number of positions
+	 * @return quantized network
+	 */
+	public NeuralNet quantize(byte[] packed, int count) {
+		float[] largest = new float[layers];
+		NeuralNet calibration = new NeuralNet(this);
+		calibration.ensureCapacity(Math.min(count, CALIBRATION));
+		for (int from = 0; from < count; from += calibration.capacity) {
+			int batch = Math.min(count - from, calibration.capacity);
+			for (int i = 0; i < batch; i++) {
+				unpack(packed, (from + i) * PACKED, calibration.activations[0], i * INPUTS);
+			}
+			calibration.forward(batch);
+			for (int l = 1; l <= layers; l++) {
+				float[] a = calibration.activations[l];
+				for (int j = 0; j < batch * neurons; j++) {
+					largest[l - 1] = Math.max(largest[l - 1], a[j]);
+				}
+			}
+		}
+		NeuralNet net = new NeuralNet(this);
+		net.weights = null;
+		net.quantizedWeights = new byte[layers + 1][];
+		net.weightScales = new float[layers + 1];
+		for (int l = 0; l <= layers; l++) {
+			float max = 0;
+			for (float w : weights[l]) {
+				max = Math.max(max, Math.abs(w));
+			}
+			float scale = max == 0 ? 1 : max / QUANTIZED_MAX;
+			byte[] quantized = new byte[weights[l].length];
+			for (int i = 0; i < quantized.length; i++) {
+				quantized[i] = (byte) Math.round(weights[l][i] / scale);
+			}
+			net.quantizedWeights[l] = quantized;
+			net.weightScales[l] = scale;
+		}
+		net.activationScales = new float[layers];
+		for (int l = 0; l < layers; l++) {
+			net.activationScales[l] = largest[l] == 0 ? 1 : largest[l] / QUANTIZED_MAX;
+		}
+		net.ensureQuantizedBuffers();
+		return net;
+	}
+	
+	/**
+	 * Returns whether the network evaluates with integers.
+	 * @return quantized
+	 */
+	public boolean isQuantized() {
+		return quantizedWeights != null;
+	}
+	
+	/**
+	 * Makes the buffers of the integer evaluation hold as many positions as the batch buffers.
+	 */
+	void ensureQuantizedBuffers() {
+		if (sums == null || quantizedActivations.length < capacity * neurons) {
+			sums = new int[capacity * Math.max(neurons, OUTPUTS)];
+			quantizedActivations = new byte[capacity * neurons];
+		}
+	}
+	
+	/**
+	 * Returns the number of hidden layers.
+	 * @return layers
+	 */
+	public int getLayers() {
+		return layers;
+	}
+	
+	/**
+	 * Returns the number of neurons per hidden layer.
+	 * @return neurons
+	 */
+	public int getNeurons() {
+		return neurons;
+	}
+	
+	/**
+	 * Returns the training generation of the weights.
+	 * @return generation, 0 if untrained
+	 */
+	public int getGeneration() {
+		return generation;
+	}
+	
+	/**
+	 * Sets the training generation of the weights.
+	 * @param generation
+	 */
+	public void setGeneration(int generation) {
+		this.generation = generation;
+	}
+	
+	/**
+	 * Sets the balls collected so far, the AI being player 1.
+	 * @param ballKeeper
+	 */
+	public void setBallKeeper(BallKeeper ballKeeper) {
+		bk = ballKeeper;
+	}
+	
+	/**
+	 * Uses the balls collected in the game so far.
+	 * @param context
+	 */
+	@Override
+	public void setSearchContext(SearchContext context) {
+		bk = context.getBallKeeper();
+	}
+	
+	/**
+	 * Returns the value of the move played last, for the AI.
+	 * @return expected result between -1 and 1
+	 */
+	public float getValue() {
+		return value;
+	}
+	
+	//----------------------------Evaluation------------------------------------
+	
+	/**
+	 * Makes the batch buffers hold at least the given number of positions.
+	 * @param positions
+	 */
+	void ensureCapacity(int positions) {
+		if (positions <= capacity) {
+			return;
+		}
+		capacity = Math.max(positions, 2 * capacity);
+		if (activations == null) {
+			activations = new float[sizes.length][];
+		}
+		for (int l = 0; l < sizes.length; l++) {
+			//positions already put into the batch are kept
+			activations[l] = activations[l] == null ? new float[capacity * sizes[l]]
+					: Arrays.copyOf(activations[l], capacity * sizes[l]);
+		}
+		packedInputs = packedInputs == null ? new byte[capacity * PACKED] : Arrays.copyOf(packedInputs, capacity * PACKED);
+	}
+	
+	/**
+	 * Writes the inputs of a position.
+	 * @param board
+	 * @param ballKeeper balls collected so far
+	 * @param player index of the player to move
+	 * @param input array to write to
+	 * @param offset of the first input
+	 */
+	public static void encode(Board board, BallKeeper ballKeeper, int player, float[] input, int offset) {
+		Arrays.fill(input, offset, offset + INPUTS, 0);
+		long empty = ~board.getOccupied() & ((1L << CELLS) - 1);
+		for (long cells = empty; cells != 0; cells &= cells - 1) {
+			input[offset + Long.numberOfTrailingZeros(cells) * CELL_STATES] = 1;
+		}
+		for (int c = 1; c < CELL_STATES; c++) {
+			for (long cells = board.getColorMask(c); cells != 0; cells &= cells - 1) {
+				input[offset + Long.numberOfTrailingZeros(cells) * CELL_STATES + c] = 1;
+			}
+			input[offset + BOARD_INPUTS + c - 1] = ballKeeper.getNumOfBalls(player, c) / COUNT_SCALE;
+			input[offset + BOARD_INPUTS + 5 + c] = ballKeeper.getNumOfBalls(1 - player, c) / COUNT_SCALE;
+		}
+	}
+	
+	/**
+	 * Stores a position in a few bytes, to be encoded later by unpack.
+	 * @param board
+	 * @param ballKeeper balls collected so far
+	 * @param player index of the player to move
+	 * @param packed array to write to
+	 * @param offset of the first byte
+	 */
+	public static void pack(Board board, BallKeeper ballKeeper, int player, byte[] packed, int offset) {
+		Arrays.fill(packed, offset, offset + CELLS, (byte) 0);
+		for (int c = 1; c < CELL_STATES; c++) {
+			for (long cells = board.getColorMask(c); cells != 0; cells &= cells - 1) {
+				packed[offset + Long.numberOfTrailingZeros(cells)] = (byte) c;
+			}
+			packed[offset + CELLS + c - 1] = (byte) ballKeeper.getNumOfBalls(player, c);
+			packed[offset + CELLS + 5 + c] = (byte) ballKeeper.getNumOfBalls(1 - player, c);
+		}
+	}
+	
+	/**
+	 * Writes the inputs of a packed position, the same as encode writes for the position.
+	 * @param packed
+	 * @param offset of the first byte
+	 * @param input array to write to
+	 * @param inputOffset of the first input
+	 */
+	public static void unpack(byte[] packed, int offset, float[] input, int inputOffset) {
+		Arrays.fill(input, inputOffset, inputOffset + INPUTS, 0);
+		for (int cell = 0; cell < CELLS; cell++) {
+			input[inputOffset + cell * CELL_STATES + packed[offset + cell]] = 1;
+		}
+		for (int i = 0; i < COUNT_INPUTS; i++) {
+			input[inputOffset + BOARD_INPUTS + i] = packed[offset + CELLS + i] / COUNT_SCALE;
+		}
+	}
+	
+	/**
+	 * Puts a position into the batch.
+	 * @param board
+	 * @param ballKeeper balls collected so far
+	 * @param player index of the player to move
+	 * @param index of the position in the batch
+	 */
+	public void encode(Board board, BallKeeper ballKeeper, int player, int index) {
+		ensureCapacity(index + 1);
+		if (quantizedWeights != null) {
+			pack(board, ballKeeper, player, packedInputs, index * PACKED);
+		} else {
+			encode(board, ballKeeper, player, activations[0], index * INPUTS);
+		}
+	}
+	
+	/**
+	 * Evaluates the first positions of the batch.
+	 * @param count number of positions
+	 */
+	public void forward(int count) {
+		if (quantizedWeights != null) {
+			ensureQuantizedBuffers();
+			forwardQuantized(count);
+			return;
+		}
+		for (int l = 0; l <= layers; l++) {
+			layer(activations[l], sizes[l], weights[l], biases[l], activations[l + 1], sizes[l + 1], count, l < layers);
+		}
+	}
+	
+	/**
+	 * Computes the outputs of a layer for a batch: the bias plus every input times its row of weights.
+	 * @param in activations of the inputs, position after position
+	 * @param inputs per position
+	 * @param w weights, input by input
+	 * @param b biases
+	 * @param out activations of the outputs, position after position
+	 * @param outputs per position
+	 * @param count number of positions
+	 * @param rectify whether negative outputs become zero
+	 */
+	static void layer(float[] in, int inputs, float[] w, float[] b, float[] out, int outputs, int count, boolean rectify) {
+		for (int p = 0; p < count; p++) {
+			System.arraycopy(b, 0, out, p * outputs, outputs);
+		}
+		int p = 0;
+		//four positions at a time, so every row of weights read serves four of them
+		for (; p + 4 <= count; p += 4) {
+			int o0 = p * outputs;
+			for (int i = 0; i < inputs; i++) {
+				float x0 = in[p * inputs + i];
+				float x1 = in[(p + 1) * inputs + i];
+				float x2 = in[(p + 2) * inputs + i];
+				float x3 = in[(p + 3) * inputs + i];
+				if (x0 == 0 && x1 == 0 && x2 == 0 && x3 == 0) {
+					continue;
+				}
+				int row = i * outputs;
+				for (int o = 0; o < outputs; o++) {
+					float weight = w[row + o];
+					out[o0 + o] += x0 * weight;
+					out[o0 + outputs + o] += x1 * weight;
+					out[o0 + 2 * outputs + o] += x2 * weight;
+					out[o0 + 3 * outputs + o] += x3 * weight;
+				}
+			}
+		}
+		for (; p < count; p++) {
+			int i0 = p * inputs;
+			int o0 = p * outputs;
+			for (int i = 0; i < inputs; i++) {
+				float x = in[i0 + i];
+				if (x != 0) {
+					int row = i * outputs;
+					for (int o = 0; o < outputs; o++) {
+						out[o0 + o] += x * w[row + o];
+					}
+				}
+			}
+		}
+		if (rectify) {
+			for (int j = 0; j < count * outputs; j++) {
+				if (out[j] < 0) {
+					out[j] = 0;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Evaluates the first positions of the batch with integers.
+	 * The first layer adds the row of every cell's state and the rows of the collected balls times their count,
+	 * which is exact in integers; the activations of every hidden layer are rounded to bytes with the scale
+	 * calibrated for the layer, and quantizedLayer sums their products with the weights of the next layer.
+	 * @param count number of positions
+	 */
+	void forwardQuantized(int count) {
+		int outputs = sizes[1];
+		byte[] w = quantizedWeights[0];
+		for (int p = 0; p < count; p++) {
+			int offset = p * PACKED;
+			int o0 = p * outputs;
+			Arrays.fill(sums, o0, o0 + outputs, 0);
+			for (int cell = 0; cell < CELLS; cell++) {
+				int row = (cell * CELL_STATES + packedInputs[offset + cell]) * outputs;
+				for (int o = 0; o < outputs; o++) {
+					sums[o0 + o] += w[row + o];
+				}
+			}
+			//a set board input is QUANTIZED_ONE collected balls
+			for (int o = 0; o < outputs; o++) {
+				sums[o0 + o] *= QUANTIZED_ONE;
+			}
+			for (int i = 0; i < COUNT_INPUTS; i++) {
+				int balls = packedInputs[offset + CELLS + i];
+				if (balls != 0) {
+					int row = (BOARD_INPUTS + i) * outputs;
+					for (int o = 0; o < outputs; o++) {
+						sums[o0 + o] += balls * w[row + o];
+					}
+				}
+			}
+		}
+		float scale = weightScales[0] / QUANTIZED_ONE;
+		for (int l = 1; l <= layers; l++) {
+			//rectify the hidden layer and round it to bytes of the calibrated scale
+			float[] bias = biases[l - 1];
+			float activationScale = activationScales[l - 1];
+			float factor = scale / activationScale;
+			float shift = 1 / activationScale;
+			for (int p = 0; p < count; p++) {
+				int o0 = p * outputs;
+				for (int o = 0; o < outputs; o++) {
+					float a = sums[o0 + o] * factor + bias[o] * shift;
+					quantizedActivations[o0 + o] = a <= 0 ? 0 : (byte) Math.min(Math.round(a), QUANTIZED_MAX);
+				}
+			}
+			int inputs = outputs;
+			outputs = sizes[l + 1];
+			quantizedLayer(quantizedActivations, inputs, quantizedWeights[l], sums, outputs, count);
+			scale = activationScale * weightScales[l];
+		}
+		float[] out = activations[layers + 1];
+		float[] bias = biases[layers];
+		for (int p = 0; p < count; p++) {
+			int o0 = p * OUTPUTS;
+			for (int o = 0; o < OUTPUTS; o++) {
+				out[o0 + o] = sums[o0 + o] * scale + bias[o];
+			}
+		}
+	}
+	
+	/**
+	 * Sums the products of a quantized layer for a batch, position by position.
+	 * Unlike layer, it skips the zero activations of each position, as four positions
+	 * share few of them and the integer products gain nothing from sharing a row.
+	 * @param in quantized activations of the inputs, position after position
+	 * @param inputs per position
+	 * @param w quantized weights, input by input
+	 * @param out sums of the outputs, position after position
+	 * @param outputs per position
+	 * @param count number of positions
+	 */
+	static void quantizedLayer(byte[] in, int inputs, byte[] w, int[] out, int outputs, int count) {
+		Arrays.fill(out, 0, count * outputs, 0);
+		for (int p = 0; p < count; p++) {
+			int i0 = p * inputs;
+			int o0 = p * outputs;
+			for (int i = 0; i < inputs; i++) {
+				int x = in[i0 + i];
+				if (x != 0) {
+					int row = i * outputs;
+					for (int o = 0; o < outputs; o++) {
+						out[o0 + o] += x * w[row + o];
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Returns the value of a position of the last evaluated batch.
+	 * @param index of the position
+	 * @return expected result for the player to move, between -1 and 1
+	 */
+	public float getValue(int index) {
+		return (float) Math.tanh(activations[layers + 1][index * OUTPUTS]);
+	}
+	
+	/**
+	 * Returns the preference for a move of a position of the last evaluated batch.
+	 * @param index of the position
+	 * @param output single move or first half of a double move, or MoveGenerator.MOVES plus the second half
+	 * @return logit, higher is better
+	 */
+	public float getPolicy(int index, int output) {
+		return activations[layers + 1][index * OUTPUTS + 1 + output];
+	}
+	
+	/**
+	 * Evaluates a single position.
+	 * @param board
+	 * @param ballKeeper balls collected so far
+	 * @param player index of the player to move
+	 * @return expected result for the player to move, between -1 and 1
+	 */
+	public float evaluate(Board board, BallKeeper ballKeeper, int player) {
+		encode(board, ballKeeper, player, 0);
+		forward(1);
+		return getValue(0);
+	}
+	
+	/**
+	 * Evaluates the position after every move in one batch and returns the best move for the AI.
+	 * The board and the ball keeper are the same afterwards.
+	 * @param board
+	 * @param moves single moves, or MoveGenerator.MOVES plus double move indices
+	 * @param count number of moves
+	 * @return best move
+	 */
+	int best(Board board, int[] moves, int count) {
+		for (int i = 0; i < count; i++) {
+			long collected = MonteCarlo.play(board, bk, moves[i], BallKeeper.PLAYER1);
+			encode(board, bk, BallKeeper.PLAYER2, i);
+			MonteCarlo.undo(board, bk, collected, BallKeeper.PLAYER1);
+		}
+		forward(count);
+		int best = 0;
+		value = -Float.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			//the value after the move is the opponent's
+			float v = -getValue(i);
+			if (v > value) {
+				value = v;
+				best = i;
+			}
+		}
+		return moves[best];
+	}
+	
+	//----------------------------Weight files------------------------------------
+	
+	/**
+	 * Returns the name of the weight file of a generation.
+	 * @param base path and name shared by all generations
+	 * @param generation
+	 * @return path
+	 */
+	public static String fileName(String base, int generation) {
+		return String.format("%s-%04d%s", base, generation, EXTENSION);
+	}
+	
+	/**
+	 * Returns the name of the quantized weight file of a generation.
+	 * @param base path and name shared by all generations
+	 * @param generation
+	 * @return path
+	 */
+	public static String quantizedFileName(String base, int generation) {
+		return String.format("%s-%04d%s", base, generation, QUANTIZED_EXTENSION);
+	}
+	
+	/**
+	 * Writes the weights to a file, a quantized network its bytes and the scales of its weights and activations.
+	 * @param path of the file
+	 * @throws IOException if the file can not be written
+	 */
+	public void save(String path) throws IOException {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+			out.writeInt(isQuantized() ? QUANTIZED_MAGIC : MAGIC);
+			out.writeInt(isQuantized() ? QUANTIZED_VERSION : VERSION);
+			out.writeInt(generation);
+			out.writeInt(layers);
+			out.writeInt(neurons);
+			for (int l = 0; l <= layers; l++) {
+				if (isQuantized()) {
+					out.writeFloat(weightScales[l]);
+					out.write(quantizedWeights[l]);
+				} else {
+					for (float w : weights[l]) {
+						out.writeFloat(w);
+					}
+				}
+				for (float b : biases[l]) {
+					out.writeFloat(b);
+				}
+				if (isQuantized() && l < layers) {
+					out.writeFloat(activationScales[l]);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reads a network from a weight file, quantized or not.
+	 * @param path of the file
+	 * @return network
+	 * @throws IOException if the file can not be read or holds no weights
+	 */
+	public static NeuralNet load(String path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+			int magic = in.readInt();
+			if (magic != MAGIC && magic != QUANTIZED_MAGIC || in.readInt() != (magic == MAGIC ? VERSION : QUANTIZED_VERSION)) {
+				throw new IOException("Not a weight file");
+			}
+			int generation = in.readInt();
+			int layers = in.readInt();
+			int neurons = in.readInt();
+			if (layers < 0 || neurons <= 0) {
+				throw new IOException("Weight file is corrupt");
+			}
+			NeuralNet net = new NeuralNet(layers, neurons);
+			net.generation = generation;
+			if (magic == MAGIC) {
+				net.weights = new float[layers + 1][];
+			} else {
+				net.quantizedWeights = new byte[layers + 1][];
+				net.weightScales = new float[layers + 1];
+				net.activationScales = new float[layers];
+			}
+			for (int l = 0; l <= layers; l++) {
+				int count = net.sizes[l] * net.sizes[l + 1];
+				if (magic == MAGIC) {
+					net.weights[l] = new float[count];
+					for (int i = 0; i < count; i++) {
+						net.weights[l][i] = in.readFloat();
+					}
+				} else {
+					net.weightScales[l] = in.readFloat();
+					net.quantizedWeights[l] = new byte[count];
+					in.readFully(net.quantizedWeights[l]);
+				}
+				for (int i = 0; i < net.biases[l].length; i++) {
+					net.biases[l][i] = in.readFloat();
+				}
+				if (magic == QUANTIZED_MAGIC && l < layers) {
+					net.activationScales[l] = in.readFloat();
+				}
+			}
+			return net;
+		}
+	}
+	
+	/**
+	 * Reads the network of the newest generation written under a base name.
+	 * @param base path and name shared by all generations
+	 * @return network, null if there is no weight file
+	 * @throws IOException if the newest file can not be read
+	 */
+	public static NeuralNet loadLatest(String base) throws IOException {
+		int latest = latestGeneration(base, EXTENSION);
+		return latest < 0 ? null : load(fileName(base, latest));
+	}
+	
+	/**
+	 * Reads the quantized network of the newest generation written under a base name.
+	 * @param base path and name shared by all generations
+	 * @return network, null if there is no quantized weight file
+	 * @throws IOException if the newest file can not be read
+	 */
+	public static NeuralNet loadLatestQuantized(String base) throws IOException {
+		int latest = latestGeneration(base, QUANTIZED_EXTENSION);
+		return latest < 0 ? null : load(quantizedFileName(base, latest));
+	}
+	
+	/**
+	 * Returns the newest generation of which there is a file under a base name.
+	 * @param base path and name shared by all generations
+	 * @param extension of the files
+	 * @return generation, -1 if there is none
+	 */
+	static int latestGeneration(String base, String extension) {
+		File file = new File(base);
+		File directory = file.getAbsoluteFile().getParentFile();
+		String prefix = file.getName() + "-";
+		int latest = -1;
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(prefix) && name.endsWith(extension)) {
+					try {
+						latest = Math.max(latest, Integer.parseInt(name.substring(prefix.length(), name.length() - extension.length())));
+					} catch (NumberFormatException e) {
+						//not a generation of this base
+					}
+				}
+			}
+		}
+		return latest;
+	}
+	
+	//----------------------------Strategy------------------------------------
+	
+	/**
+	 * Returns the single move after which the network values the position best.
+	 * @param board
+	 * @return move, -1 if there is no single move
+	 */
 	@Override
 	public int determineMove(Board board) {
-		// TODO Auto-generated method stub
-		return 0;
+		int singleMoves = MoveGenerator.getSingleMoves(board);
+		if (singleMoves == 0) {
+			return -1;
+		}
+		int[] moves = new int[Integer.bitCount(singleMoves)];
+		int count = 0;
+		for (int m = singleMoves; m != 0; m &= m - 1) {
+			moves[count++] = Integer.numberOfTrailingZeros(m);
+		}
+		return best(board, moves, count);
 	}
+	
+	/**
+	 * Returns the double move after which the network values the position best.
+	 * @param board
+	 * @return move, null if there is no double move
+	 */
 	@Override
 	public Tuple<Integer, Integer> determineDoubleMove(Board board) {
-		// TODO Auto-generated method stub
-		return null;
+		if (MoveGenerator.getSingleMoves(board) != 0) {
+			return null;
+		}
+		long[] doubleMoves = MoveGenerator.getDoubleMoves(board);
+		int count = MoveGenerator.countDoubleMoves(doubleMoves);
+		if (count == 0) {
+			return null;
+		}
+		int[] moves = new int[count];
+		count = 0;
+		for (int m = MoveGenerator.nextDoubleMove(doubleMoves, 0); m >= 0; m = MoveGenerator.nextDoubleMove(doubleMoves, m + 1)) {
+			moves[count++] = MoveGenerator.MOVES + m;
+		}
+		int index = best(board, moves, count) - MoveGenerator.MOVES;
+		return new Tuple<Integer, Integer>(MoveGenerator.first(index), MoveGenerator.second(index));
 	}
-	
-
-
 }
@@ -0,0 +1,604 @@
+package player;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import game.BallKeeper;
+import game.Board;
+import game.MoveGenerator;
+import game.Tuple;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * Trains the weights of a NeuralNet offline, generation after generation.
+ * In every generation worker threads play games between two AI players using a teacher strategy,
+ * after a few random moves so no two games are the same. Every position the teacher moved in
+ * is kept, packed, with the teacher's move and the result of the game for the player to move.
+ * The network then learns from the kept positions: the value to predict the result and the policy
+ * to predict the teacher's move. Every step of Adam takes a random batch of positions,
+ * split over the threads, which compute the gradients of their part with their own copy of the network;
+ * the gradients are summed and the weights updated once.
+ * The weights of every generation are written to a file of their own, see NeuralNet.fileName,
+ * and training goes on from the newest file when it is started again.
+ * Every generation is also written quantized, calibrated on kept positions, after checking
+ * on other kept positions how close the quantized network comes to the trained one.
+ * Run as: NeuralNetTrainer base generations games [naive|alphabeta|montecarlo] [threads]
+ */
+
+public class NeuralNetTrainer {
+	/** Moves played at random at the start of every game. */
+	static final int RANDOM_PLIES = 4;
+	/** Number of positions per step. */
+	static final int BATCH = 256;
+	/** Number of times the positions of a generation are learned on average. */
+	static final int EPOCHS = 4;
+	/** Most positions kept; the oldest are replaced first. */
+	static final int WINDOW = 200000;
+	/** Step size of Adam. */
+	static final float LEARNING_RATE = 0.001f;
+	/** Decay of the mean of the gradients. */
+	static final float BETA1 = 0.9f;
+	/** Decay of the mean of the squared gradients. */
+	static final float BETA2 = 0.999f;
+	/** Keeps the steps finite. */
+	static final float EPSILON = 1e-8f;
+	/** Most moves a game can take: every move collects at least two of the 49 balls. */
+	static final int MAX_MOVES = 32;
+	/** Number of kept positions the quantized network is compared on. */
+	static final int COMPARED = 2000;
+	/** Number of kept positions the activation scales of the quantized network are calibrated on. */
+	static final int CALIBRATED = 2000;
+	
+	/** The network being trained. */
+	private final NeuralNet net;
+	/** Creates a strategy for every AI player in the games. */
+	private final Supplier<Strategy> teacher;
+	/** The number of threads playing and training. */
+	private final int threads;
+	/** The pool the training steps run on. */
+	private final ForkJoinPool pool;
+	/** The kept positions, packed. */
+	private final byte[] positions;
+	/** The move of the teacher per kept position. */
+	private final int[] moves;
+	/** The result of the game per kept position, for the player to move: 1, 0 or -1. */
+	private final float[] results;
+	/** The number of kept positions. */
+	private int size;
+	/** Where the next position is kept. */
+	private int next;
+	/** Mean of the gradients per weight and bias, as for the weights of the network. */
+	private final float[][] meanWeights, meanBiases;
+	/** Mean of the squared gradients per weight and bias. */
+	private final float[][] squareWeights, squareBiases;
+	/** Number of Adam steps taken. */
+	private int steps;
+	/** Source of the random moves and batches. */
+	private final Random random;
+	
+	/**
+	 * Constructs a trainer.
+	 * @param net network to train, not quantized
+	 * @param teacher creates the strategy of every AI player in the games
+	 * @param threads number of threads playing and training
+	 * @param seed of the random moves and batches
+	 */
+	public NeuralNetTrainer(NeuralNet net, Supplier<Strategy> teacher, int threads, long seed) {
+		this.net = net;
+		this.teacher = teacher;
+		this.threads = Math.max(1, threads);
+		pool = new ForkJoinPool(this.threads);
+		positions = new byte[WINDOW * NeuralNet.PACKED];
+		moves = new int[WINDOW];
+		results = new float[WINDOW];
+		meanWeights = zeros(net.weights);
+		meanBiases = zeros(net.biases);
+		squareWeights = zeros(net.weights);
+		squareBiases = zeros(net.biases);
+		random = new Random(seed);
+	}
+	
+	/**
+	 * Returns arrays of zeros shaped like the given ones.
+	 * @param shape
+	 * @return zeros
+	 */
+	static float[][] zeros(float[][] shape) {
+		float[][] zeros = new float[shape.length][];
+		for (int l = 0; l < shape.length; l++) {
+			zeros[l] = new float[shape[l].length];
+		}
+		return zeros;
+	}
+	
+	/**
+	 * Returns the number of kept positions.
+	 * @return positions
+	 */
+	public int size() {
+		return size;
+	}
+	
+	//----------------------------Self-play------------------------------------
+	
+	/**
+	 * Plays games on all threads and keeps their positions.
+	 * @param games number of games
+	 * @return number of positions kept
+	 */
+	public int selfPlay(int games) {
+		AtomicInteger started = new AtomicInteger();
+		AtomicInteger kept = new AtomicInteger();
+		long seed = random.nextLong();
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			Random workerRandom = new Random(seed + i);
+			workers[i] = new Thread(() -> {
+				AI[] players = {new AI(teacher.get()), new AI(teacher.get())};
+				while (started.getAndIncrement() < games) {
+					kept.addAndGet(playGame(players, workerRandom));
+				}
+			});
+			workers[i].start();
+		}
+		for (Thread worker : workers) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return kept.get();
+	}
+	
+	/**
+	 * Plays a game and keeps the positions the teacher moved in.
+	 * @param players the AI players, by player index
+	 * @param random source of the opening moves
+	 * @return number of positions kept
+	 */
+	int playGame(AI[] players, Random random) {
+		Board board = new Board();
+		board.populateBoard();
+		board.clearJournal();
+		for (AI player : players) {
+			//the games follow each other on the same players, whose tables stay right from game to game
+			player.setBoard(board.toString(), true);
+		}
+		BallKeeper ballKeeper = new BallKeeper("p1", "p2");
+		byte[] packed = new byte[MAX_MOVES * NeuralNet.PACKED];
+		int[] gameMoves = new int[MAX_MOVES];
+		int[] movers = new int[MAX_MOVES];
+		int count = 0;
+		long[] doubleMoves = new long[MoveGenerator.DOUBLE_MOVE_WORDS];
+		int player = BallKeeper.PLAYER1;
+		for (int ply = 0; ; ply++) {
+			int singleMoves = MoveGenerator.getSingleMoves(board);
+			int doubleCount = 0;
+			if (singleMoves == 0) {
+				MoveGenerator.getDoubleMoves(board, doubleMoves);
+				doubleCount = MoveGenerator.countDoubleMoves(doubleMoves);
+				if (doubleCount == 0) {
+					break;
+				}
+			}
+			int move;
+			if (ply < RANDOM_PLIES) {
+				move = singleMoves != 0 ? MoveGenerator.nthMove(singleMoves, random.nextInt(Integer.bitCount(singleMoves)))
+						: MoveGenerator.MOVES + MoveGenerator.nthDoubleMove(doubleMoves, random.nextInt(doubleCount));
+			} else {
+				if (singleMoves != 0) {
+					move = players[player].determineSingleMove();
+				} else {
+					Tuple<Integer, Integer> doubleMove = players[player].determineDoubleMove();
+					move = MoveGenerator.MOVES + doubleMove.x * MoveGenerator.MOVES + doubleMove.y;
+				}
+				NeuralNet.pack(board, ballKeeper, player, packed, count * NeuralNet.PACKED);
+				gameMoves[count] = move;
+				movers[count] = player;
+				count++;
+			}
+			for (int p = 0; p < players.length; p++) {
+				if (move < MoveGenerator.MOVES) {
+					players[p].playMove(move, p == player);
+				} else {
+					int index = move - MoveGenerator.MOVES;
+					players[p].playMove(MoveGenerator.first(index), MoveGenerator.second(index), p == player);
+				}
+			}
+			MonteCarlo.play(board, ballKeeper, move, player);
+			board.clearJournal();
+			player = 1 - player;
+		}
+		float[] gameResults = new float[count];
+		for (int i = 0; i < count; i++) {
+			gameResults[i] = Math.signum(ballKeeper.getScore(movers[i]));
+		}
+		keep(packed, gameMoves, gameResults, count);
+		return count;
+	}
+	
+	/**
+	 * Keeps the positions of a game, replacing the oldest when the window is full.
+	 * @param packed positions
+	 * @param gameMoves the teacher's move per position
+	 * @param gameResults the result per position
+	 * @param count number of positions
+	 */
+	synchronized void keep(byte[] packed, int[] gameMoves, float[] gameResults, int count) {
+		for (int i = 0; i < count; i++) {
+			System.arraycopy(packed, i * NeuralNet.PACKED, positions, next * NeuralNet.PACKED, NeuralNet.PACKED);
+			moves[next] = gameMoves[i];
+			results[next] = gameResults[i];
+			next = (next + 1) % WINDOW;
+			size = Math.max(size, next == 0 ? WINDOW : next);
+		}
+	}
+	
+	//----------------------------Training------------------------------------
+	
+	/**
+	 * Takes steps of Adam on random batches of the kept positions.
+	 * @param count number of steps
+	 * @return mean loss of the positions of the last step
+	 */
+	public float train(int count) {
+		NeuralNet[] copies = new NeuralNet[threads];
+		float[][][] weightGradients = new float[threads][][];
+		float[][][] biasGradients = new float[threads][][];
+		for (int t = 0; t < threads; t++) {
+			copies[t] = net.copy();
+			weightGradients[t] = zeros(net.weights);
+			biasGradients[t] = zeros(net.biases);
+		}
+		int[] batch = new int[BATCH];
+		float loss = 0;
+		for (int step = 0; step < count; step++) {
+			for (int i = 0; i < BATCH; i++) {
+				batch[i] = random.nextInt(size);
+			}
+			List<Callable<Float>> tasks = new ArrayList<Callable<Float>>();
+			for (int t = 0; t < threads; t++) {
+				int from = t * BATCH / threads;
+				int to = (t + 1) * BATCH / threads;
+				NeuralNet copy = copies[t];
+				float[][] weightGradient = weightGradients[t];
+				float[][] biasGradient = biasGradients[t];
+				tasks.add(() -> gradients(copy, batch, from, to, weightGradient, biasGradient));
+			}
+			loss = 0;
+			try {
+				for (Future<Float> future : pool.invokeAll(tasks)) {
+					loss += future.get();
+				}
+			} catch (InterruptedException | ExecutionException e) {
+				throw new IllegalStateException(e);
+			}
+			loss /= BATCH;
+			update(weightGradients, biasGradients);
+		}
+		return loss;
+	}
+	
+	/**
+	 * Computes the gradients of the loss over part of a batch with backpropagation.
+	 * The loss of a position is half the squared error of the value plus the cross entropy
+	 * of the policy: of the single moves, or of the first and of the second halves of a double move.
+	 * @param copy network evaluating the part
+	 * @param batch indices of the kept positions
+	 * @param from first index in the batch
+	 * @param to index in the batch after the last
+	 * @param weightGradient to set to the gradients of the weights
+	 * @param biasGradient to set to the gradients of the biases
+	 * @return summed loss of the part
+	 */
+	float gradients(NeuralNet copy, int[] batch, int from, int to, float[][] weightGradient, float[][] biasGradient) {
+		for (int l = 0; l < weightGradient.length; l++) {
+			Arrays.fill(weightGradient[l], 0);
+			Arrays.fill(biasGradient[l], 0);
+		}
+		int count = to - from;
+		copy.ensureCapacity(count);
+		for (int i = 0; i < count; i++) {
+			NeuralNet.unpack(positions, batch[from + i] * NeuralNet.PACKED, copy.activations[0], i * NeuralNet.INPUTS);
+		}
+		copy.forward(count);
+		int[] sizes = copy.sizes;
+		int layers = copy.layers;
+		//gradients of the outputs of the layer at hand, then of its inputs
+		float[] delta = new float[Math.max(NeuralNet.OUTPUTS, copy.neurons)];
+		float[] previous = new float[Math.max(NeuralNet.OUTPUTS, copy.neurons)];
+		float loss = 0;
+		for (int i = 0; i < count; i++) {
+			int sample = batch[from + i];
+			float[] outputs = copy.activations[layers + 1];
+			int o0 = i * NeuralNet.OUTPUTS;
+			float value = (float) Math.tanh(outputs[o0]);
+			float error = value - results[sample];
+			loss += error * error / 2;
+			delta[0] = error * (1 - value * value);
+			int move = moves[sample];
+			int first = move < MoveGenerator.MOVES ? move : MoveGenerator.first(move - MoveGenerator.MOVES);
+			loss += softmax(outputs, o0 + 1, delta, 1, first);
+			if (move < MoveGenerator.MOVES) {
+				Arrays.fill(delta, 1 + MoveGenerator.MOVES, NeuralNet.OUTPUTS, 0);
+			} else {
+				loss += softmax(outputs, o0 + 1 + MoveGenerator.MOVES, delta, 1 + MoveGenerator.MOVES,
+						MoveGenerator.second(move - MoveGenerator.MOVES));
+			}
+			for (int l = layers; l >= 0; l--) {
+				int inputs = sizes[l];
+				int outputCount = sizes[l + 1];
+				float[] in = copy.activations[l];
+				int in0 = i * inputs;
+				float[] w = copy.weights[l];
+				float[] gradient = weightGradient[l];
+				for (int o = 0; o < outputCount; o++) {
+					biasGradient[l][o] += delta[o];
+				}
+				for (int j = 0; j < inputs; j++) {
+					float x = in[in0 + j];
+					if (x == 0) {
+						//zero inputs get no gradient and, being rectified, pass none back
+						if (l > 0) {
+							previous[j] = 0;
+						}
+						continue;
+					}
+					int row = j * outputCount;
+					float sum = 0;
+					for (int o = 0; o < outputCount; o++) {
+						gradient[row + o] += x * delta[o];
+						sum += w[row + o] * delta[o];
+					}
+					if (l > 0) {
+						previous[j] = sum;
+					}
+				}
+				if (l > 0) {
+					System.arraycopy(previous, 0, delta, 0, inputs);
+				}
+			}
+		}
+		return loss;
+	}
+	
+	/**
+	 * Sets the gradients of the cross entropy of a softmax over the moves.
+	 * @param outputs logits
+	 * @param offset of the first logit
+	 * @param delta to set the gradients in
+	 * @param deltaOffset of the first gradient
+	 * @param target the move played
+	 * @return cross entropy
+	 */
+	static float softmax(float[] outputs, int offset, float[] delta, int deltaOffset, int target) {
+		float max = Float.NEGATIVE_INFINITY;
+		for (int m = 0; m < MoveGenerator.MOVES; m++) {
+			max = Math.max(max, outputs[offset + m]);
+		}
+		float sum = 0;
+		for (int m = 0; m < MoveGenerator.MOVES; m++) {
+			float e = (float) Math.exp(outputs[offset + m] - max);
+			delta[deltaOffset + m] = e;
+			sum += e;
+		}
+		for (int m = 0; m < MoveGenerator.MOVES; m++) {
+			delta[deltaOffset + m] /= sum;
+		}
+		float probability = delta[deltaOffset + target];
+		delta[deltaOffset + target] -= 1;
+		return (float) -Math.log(Math.max(probability, 1e-30f));
+	}
+	
+	/**
+	 * Takes a step of Adam with the summed gradients of all threads.
+	 * @param weightGradients per thread
+	 * @param biasGradients per thread
+	 */
+	void update(float[][][] weightGradients, float[][][] biasGradients) {
+		steps++;
+		float correction1 = 1 - (float) Math.pow(BETA1, steps);
+		float correction2 = 1 - (float) Math.pow(BETA2, steps);
+		for (int l = 0; l < net.weights.length; l++) {
+			update(net.weights[l], weightGradients, l, meanWeights[l], squareWeights[l], correction1, correction2);
+			update(net.biases[l], biasGradients, l, meanBiases[l], squareBiases[l], correction1, correction2);
+		}
+	}
+	
+	/**
+	 * Takes a step of Adam for the parameters of a layer.
+	 * @param parameters weights or biases of the layer
+	 * @param gradients per thread and layer
+	 * @param l layer
+	 * @param mean of the gradients
+	 * @param square mean of the squared gradients
+	 * @param correction1 bias correction of the mean
+	 * @param correction2 bias correction of the squared mean
+	 */
+	static void update(float[] parameters, float[][][] gradients, int l, float[] mean, float[] square,
+			float correction1, float correction2) {
+		for (int i = 0; i < parameters.length; i++) {
+			float g = 0;
+			for (float[][] gradient : gradients) {
+				g += gradient[l][i];
+			}
+			g /= BATCH;
+			mean[i] = BETA1 * mean[i] + (1 - BETA1) * g;
+			square[i] = BETA2 * square[i] + (1 - BETA2) * g * g;
+			parameters[i] -= LEARNING_RATE * (mean[i] / correction1) / ((float) Math.sqrt(square[i] / correction2) + EPSILON);
+		}
+	}
+	
+	/**
+	 * Returns the trained network quantized, calibrated on kept positions spread over the window
+	 * halfway between those compare takes.
+	 * @param count most positions to calibrate on
+	 * @return quantized network
+	 */
+	public NeuralNet quantize(int count) {
+		count = Math.min(count, size);
+		if (count == 0) {
+			return net.quantize();
+		}
+		byte[] packed = new byte[count * NeuralNet.PACKED];
+		for (int i = 0; i < count; i++) {
+			int sample = (int) ((2L * i + 1) * size / (2L * count));
+			System.arraycopy(positions, sample * NeuralNet.PACKED, packed, i * NeuralNet.PACKED, NeuralNet.PACKED);
+		}
+		return net.quantize(packed, count);
+	}
+	
+	/**
+	 * Compares a quantized network with the trained one on kept positions spread over the window.
+	 * @param quantized network
+	 * @param count most positions to compare on
+	 * @return the mean difference of the values and the share of positions with the same preferred single move
+	 */
+	public float[] compare(NeuralNet quantized, int count) {
+		count = Math.min(count, size);
+		NeuralNet exact = net.copy();
+		NeuralNet copy = quantized.copy();
+		exact.ensureCapacity(count);
+		copy.ensureCapacity(count);
+		for (int i = 0; i < count; i++) {
+			int sample = (int) ((long) i * size / count);
+			NeuralNet.unpack(positions, sample * NeuralNet.PACKED, exact.activations[0], i * NeuralNet.INPUTS);
+			System.arraycopy(positions, sample * NeuralNet.PACKED, copy.packedInputs, i * NeuralNet.PACKED, NeuralNet.PACKED);
+		}
+		exact.forward(count);
+		copy.forward(count);
+		float difference = 0;
+		int same = 0;
+		for (int i = 0; i < count; i++) {
+			difference += Math.abs(exact.getValue(i) - copy.getValue(i));
+			if (preferred(exact, i) == preferred(copy, i)) {
+				same++;
+			}
+		}
+		return count == 0 ? new float[2] : new float[] {difference / count, (float) same / count};
+	}
+	
+	/**
+	 * Returns the single move a network prefers in a position of its last batch.
+	 * @param evaluated network
+	 * @param index of the position
+	 * @return move
+	 */
+	static int preferred(NeuralNet evaluated, int index) {
+		int best = 0;
+		for (int m = 1; m < MoveGenerator.MOVES; m++) {
+			if (evaluated.getPolicy(index, m) > evaluated.getPolicy(index, best)) {
+				best = m;
+			}
+		}
+		return best;
+	}
+	
+	//----------------------------Pipeline------------------------------------
+	
+	/**
+	 * Returns a creator of teacher strategies by name.
+	 * @param name naive, alphabeta or montecarlo
+	 * @return creator, null for an unknown name
+	 */
+	static Supplier<Strategy> teacher(String name) {
+		switch (name) {
+			case "naive":
+				return Naive::new;
+			case "alphabeta":
+				return () -> {
+					AlphaBeta strategy = new AlphaBeta();
+					strategy.setLevel(2);
+					return strategy;
+				};
+			case "montecarlo":
+				return () -> {
+					MonteCarlo strategy = new MonteCarlo();
+					strategy.setThreads(1);
+					strategy.setTimeLimit(0);
+					strategy.setPlayoutLimit(1000);
+					return strategy;
+				};
+			default:
+				return null;
+		}
+	}
+	
+	/**
+	 * Trains generations of weights, going on from the newest file of the base name.
+	 * @param args base name of the weight files, number of generations, games per generation,
+	 * optionally the teacher and the number of threads
+	 */
+	public static void main(String[] args) {
+		if (args.length < 3) {
+			System.out.println("Usage: NeuralNetTrainer base generations games [naive|alphabeta|montecarlo] [threads]");
+			return;
+		}
+		String base = args[0];
+		int generations = Integer.parseInt(args[1]);
+		int games = Integer.parseInt(args[2]);
+		Supplier<Strategy> teacher = teacher(args.length > 3 ? args[3] : "alphabeta");
+		if (teacher == null) {
+			System.out.println("Unknown teacher " + args[3]);
+			return;
+		}
+		int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+		NeuralNet net;
+		try {
+			net = NeuralNet.loadLatest(base);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		if (net == null) {
+			net = new NeuralNet();
+		}
+		NeuralNetTrainer trainer = new NeuralNetTrainer(net, teacher, threads, System.nanoTime());
+		for (int g = 0; g < generations; g++) {
+			long start = System.nanoTime();
+			int played = trainer.selfPlay(games);
+			long middle = System.nanoTime();
+			int stepCount = Math.max(1, EPOCHS * played / BATCH);
+			float loss = trainer.train(stepCount);
+			long end = System.nanoTime();
+			net.setGeneration(net.getGeneration() + 1);
+			String file = NeuralNet.fileName(base, net.getGeneration());
+			NeuralNet quantized = trainer.quantize(CALIBRATED);
+			float[] accuracy = trainer.compare(quantized, COMPARED);
+			try {
+				net.save(file);
+				quantized.save(NeuralNet.quantizedFileName(base, net.getGeneration()));
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+			System.out.println("generation " + net.getGeneration() + ": "
+					+ played + " positions played at " + perSecond(played, middle - start) + "/s, "
+					+ stepCount * BATCH + " trained at " + perSecond(stepCount * BATCH, end - middle) + "/s, "
+					+ "loss " + loss + ", written to " + file);
+			System.out.println("quantized: value off by " + accuracy[0] + " on average, same preferred move in "
+					+ Math.round(accuracy[1] * 100) + "% of positions");
+		}
+	}
+	
+	/**
+	 * Returns a rate.
+	 * @param count
+	 * @param nanos time taken
+	 * @return count per second
+	 */
+	static long perSecond(long count, long nanos) {
+		return nanos == 0 ? 0 : count * 1000000000L / nanos;
+	}
+}
@@ -1,8 +1,5 @@
 package player;
 
-import java.util.List;
-
-import game.Ball;
 import game.Board;
 
 public interface Player {
@@ -44,10 +41,7 @@ public interface Player {
 	 */
 	public default void updateBoard() {
 		Board board = getBoard();
-		List<Ball> list = board.checkNeighbours(board);
-		for (Ball ball: list) {
-			ball.remove();
-		}
+		board.removeBalls(board.getNeighbourMask());
 	}
 	/**
 	 * Used by the Human player to get the hints during a game.
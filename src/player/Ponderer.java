@@ -0,0 +1,26 @@
+package player;
+
+import game.Board;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * A strategy that can think on the opponent's time.
+ * While the opponent is to move it searches the opponent's replies in the background,
+ * keeping what it finds for the search of its own next move.
+ */
+
+public interface Ponderer {
+	/**
+	 * Starts searching the position in the background, the opponent being to move.
+	 * The board is copied, so the caller may change it right away.
+	 * @param board
+	 */
+	void startPondering(Board board);
+	
+	/**
+	 * Stops the background search and waits for it to end.
+	 * Does nothing if there is none.
+	 */
+	void stopPondering();
+}
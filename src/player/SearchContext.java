@@ -0,0 +1,118 @@
+package player;
+
+import game.BallKeeper;
+import game.Board;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * The search state an AI player keeps for a whole game, so every search starts where the last one ended.
+ * It holds the balls both players collected, player 1 being the AI,
+ * the transposition table, the move ordering and the Monte Carlo tree.
+ * The AI reports every move played by either player; the tree then moves down to the node
+ * of that move, so after the AI's move and the opponent's reply the next search
+ * starts from the subtree of the position actually reached.
+ * Strategies take what they use from the context in setSearchContext.
+ */
+
+public class SearchContext {
+	/** The balls collected in the game so far. */
+	private final BallKeeper ballKeeper;
+	/** The transposition table kept over the game, null until a strategy asks for it. */
+	private TranspositionTable table;
+	/** The killer moves and history kept over the game. */
+	private final MoveOrdering ordering;
+	/** The Monte Carlo tree of the current position, null if there is none. */
+	private MonteCarloNode tree;
+	
+	/**
+	 * Constructs a context for a new game.
+	 * The 16 MB transposition table is only created once a strategy asks for it,
+	 * so an AI whose strategy uses none does not pay for one.
+	 */
+	public SearchContext() {
+		ballKeeper = new BallKeeper("p1", "p2");
+		ordering = new MoveOrdering();
+	}
+	
+	/**
+	 * Forgets everything of the last game.
+	 */
+	public void newGame() {
+		newGame(false);
+	}
+	
+	/**
+	 * Forgets the last game, but the transposition table if asked to.
+	 * The table is keyed by the whole position, collected balls included, so its entries stay right
+	 * in any other game; keeping it saves clearing it between games played back to back.
+	 * @param keepTable whether to keep the entries of the table
+	 */
+	public void newGame(boolean keepTable) {
+		ballKeeper.clear();
+		if (table != null && !keepTable) {
+			table.clear();
+		}
+		ordering.clear();
+		tree = null;
+	}
+	
+	/**
+	 * Records a move played in the game, after it has been done on the board
+	 * and before the balls it collects are removed.
+	 * @param board after the move
+	 * @param found bitboard of the balls the move collects
+	 * @param move single move, or MoveGenerator.MOVES plus a double move index
+	 * @param player index of the player that did the move
+	 */
+	public void movePlayed(Board board, long found, int move, int player) {
+		ballKeeper.addBalls(player, board, found);
+		ordering.shift();
+		if (tree != null) {
+			tree = tree.getChild(move);
+		}
+	}
+	
+	/**
+	 * Returns the balls collected in the game so far, player 1 being the AI.
+	 * @return ball keeper
+	 */
+	public BallKeeper getBallKeeper() {
+		return ballKeeper;
+	}
+	
+	/**
+	 * Returns the transposition table kept over the game, creating it on first use.
+	 * @return table
+	 */
+	public TranspositionTable getTranspositionTable() {
+		if (table == null) {
+			table = new TranspositionTable(AlphaBeta.TABLE_MB);
+		}
+		return table;
+	}
+	
+	/**
+	 * Returns the move ordering kept over the game.
+	 * @return ordering
+	 */
+	public MoveOrdering getOrdering() {
+		return ordering;
+	}
+	
+	/**
+	 * Returns the Monte Carlo tree of the current position.
+	 * @return root, null if there is none
+	 */
+	public MonteCarloNode getTree() {
+		return tree;
+	}
+	
+	/**
+	 * Sets the Monte Carlo tree of the current position.
+	 * @param tree root
+	 */
+	public void setTree(MonteCarloNode tree) {
+		this.tree = tree;
+	}
+}
@@ -1,11 +1,8 @@
 package player;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import game.Ball;
 import game.BallKeeper;
 import game.Board;
+import game.MoveGenerator;
 import game.Tuple;
 
 /**
@@ -15,6 +12,8 @@ import game.Tuple;
  * The strategy returns the best possible move calculated by the MinMax algorithm.
  * The depth can be individually set.
  * The smart MinMax AI uses a global BallKeeper to improve its capability.
+ * The BallKeeper is the one of the SearchContext, which the AI keeps up to date
+ * with the moves of both players.
  */
 
 public class SmartMinMax implements Strategy {
@@ -40,44 +39,44 @@ public class SmartMinMax implements Strategy {
 		this.level = level;
 	}
 	
+	/**
+	 * Uses the balls collected in the game so far, as kept by the context.
+	 * @param context
+	 */
+	@Override
+	public void setSearchContext(SearchContext context) {
+		bk = context.getBallKeeper();
+	}
+	
 	//----------------------------Strategy------------------------------------
 	
 	/**
 	 * Returns the best valid single move according to the algorithm.
 	 * Calculates a score for all possible moves and selects the best.
-	 * Also does the move on the AIs board and evaluates it,
-	 * adding adding some balls to its global BallKeeper.
 	 * @param board
 	 * @return move
 	 */	
 	@Override
 	public int determineMove(Board board) {
 		
-		List<Integer> singleMoves = getSingleMoves(board);
-		if (!singleMoves.isEmpty()) {
+		int singleMoves = MoveGenerator.getSingleMoves(board);
+		if (singleMoves != 0) {
 			int maxScore = -10;
 			int bestMove = -1;
-			for (int move : singleMoves) {
-				Board testBoard = board.getCopy();
+			for (int moves = singleMoves; moves != 0; moves &= moves - 1) {
+				int move = Integer.numberOfTrailingZeros(moves);
 				BallKeeper testBK = bk.copy();
-				testBoard.doMove(move);
-				for (Ball b : testBoard.checkNeighbours(testBoard)) {
-					b.remove();
-					testBK.addBall(b, "p1");
-					
-				}
-				int score  = minMax(false, 0, testBoard, testBK);
+				board.doMove(move);
+				long found = board.getNeighbourMask(Board.getLineMask(move));
+				testBK.addBalls(BallKeeper.PLAYER1, board, found);
+				board.removeBalls(found);
+				int score  = minMax(false, 0, board, testBK);
+				board.undoMove();
 				if (score > maxScore) {
 					maxScore = score;
 					bestMove = move;
 				}
 			}
-			Board testBoard = board.getCopy();
-			testBoard.doMove(bestMove);
-			for (Ball b : board.checkNeighbours(board)) {
-				b.remove();
-				bk.addBall(b, "p1");
-			}
 			return bestMove;
 		}
 		return -1;
@@ -92,30 +91,27 @@ public class SmartMinMax implements Strategy {
 	@Override
 	public Tuple<Integer, Integer> determineDoubleMove(Board board) {
 		
-		List<Tuple<Integer, Integer>> doubleMoves = getDoubleMoves(board);
-		if (!doubleMoves.isEmpty()) {
+		long[] doubleMoves = MoveGenerator.getDoubleMoves(board);
+		if (!MoveGenerator.isEmpty(doubleMoves)) {
 			int maxScore = -10;
 			Tuple<Integer, Integer> bestMove = null;
-			for (Tuple<Integer, Integer> move : doubleMoves) {
-				Board testBoard = board.getCopy();
+			for (int m = MoveGenerator.nextDoubleMove(doubleMoves, 0); m >= 0; m = MoveGenerator.nextDoubleMove(doubleMoves, m + 1)) {
+				int first = MoveGenerator.first(m);
+				int second = MoveGenerator.second(m);
 				BallKeeper testBK = bk.copy();
-				testBoard.doMove(move);
-				for (Ball b : testBoard.checkNeighbours(testBoard)) {
-					b.remove();
-					testBK.addBall(b, "p1");
-				}
-				int score  = minMax(false, 0, testBoard, testBK);
+				board.doMove(first);
+				board.doMove(second);
+				long found = board.getNeighbourMask(Board.getLineMask(first) | Board.getLineMask(second));
+				testBK.addBalls(BallKeeper.PLAYER1, board, found);
+				board.removeBalls(found);
+				int score  = minMax(false, 0, board, testBK);
+				board.undoMove();
+				board.undoMove();
 				if (score > maxScore) {
 					maxScore = score;
-					bestMove = move;
+					bestMove = new Tuple<Integer, Integer>(first, second);
 				}
 			}
-			Board testBoard = board.getCopy();
-			testBoard.doMove(bestMove);
-			for (Ball b : board.checkNeighbours(board)) {
-				b.remove();
-				bk.addBall(b, "p1");
-			}
 			return bestMove;
 		}
 		return null;
@@ -134,37 +130,32 @@ public class SmartMinMax implements Strategy {
 	int minMax(boolean player1, int depth, Board board, BallKeeper ballKeeper) {
 		int d = depth + 1;
 		if (d <= level * 2) {
-			List<Integer> singleMoves = getSingleMoves(board);
-			if (!singleMoves.isEmpty()) {
-				for (int move : singleMoves) {
-					Board testBoard = board.getCopy();
+			int singleMoves = MoveGenerator.getSingleMoves(board);
+			if (singleMoves != 0) {
+				for (int moves = singleMoves; moves != 0; moves &= moves - 1) {
+					int move = Integer.numberOfTrailingZeros(moves);
 					BallKeeper testBK = ballKeeper.copy();
-					testBoard.doMove(move);
-					for (Ball b : testBoard.checkNeighbours(testBoard)) {
-						b.remove();
-						if (player1) {
-							ballKeeper.addBall(b, "p1");
-						} else {
-							ballKeeper.addBall(b, "p2");
-						}
-					}
+					board.doMove(move);
+					long found = board.getNeighbourMask(Board.getLineMask(move));
+					ballKeeper.addBalls(player1 ? BallKeeper.PLAYER1 : BallKeeper.PLAYER2, board, found);
+					board.removeBalls(found);
+					board.undoMove();
 					minMax(!player1, d, board, testBK);
 				}
 			} else {
-				List<Tuple<Integer, Integer>> doubleMoves = getDoubleMoves(board);
-				if (!doubleMoves.isEmpty()) {
-					for (Tuple<Integer, Integer> move : doubleMoves) {
-						Board testBoard = board.getCopy();
+				long[] doubleMoves = MoveGenerator.getDoubleMoves(board);
+				if (!MoveGenerator.isEmpty(doubleMoves)) {
+					for (int m = MoveGenerator.nextDoubleMove(doubleMoves, 0); m >= 0; m = MoveGenerator.nextDoubleMove(doubleMoves, m + 1)) {
+						int first = MoveGenerator.first(m);
+						int second = MoveGenerator.second(m);
 						BallKeeper testBK = ballKeeper.copy();
-						testBoard.doMove(move);
-						for (Ball b : testBoard.checkNeighbours(testBoard)) {
-							b.remove();
-							if (player1) {
-								ballKeeper.addBall(b, "p1");
-							} else {
-								ballKeeper.addBall(b, "p2");
-							}
-						}
+						board.doMove(first);
+						board.doMove(second);
+						long found = board.getNeighbourMask(Board.getLineMask(first) | Board.getLineMask(second));
+						ballKeeper.addBalls(player1 ? BallKeeper.PLAYER1 : BallKeeper.PLAYER2, board, found);
+						board.removeBalls(found);
+						board.undoMove();
+						board.undoMove();
 						minMax(!player1, d, board, testBK);
 					}
 				}
@@ -182,50 +173,9 @@ public class SmartMinMax implements Strategy {
 	 */
 	int determineScore(BallKeeper ballKeeper) {
 		
-		int score = ballKeeper.getPoints("p1") * ballKeeper.getPoints("p1")
-				+ ballKeeper.getNumOfBalls("p1");
+		int points = ballKeeper.getPoints(BallKeeper.PLAYER1);
+		int score = points * points + ballKeeper.getNumOfBalls(BallKeeper.PLAYER1);
 		
 		return score;
 	}
-	
-	/**
-	 * Returns a list of valid single moves that can be applied to the main board.
-	 * @return List of moves.
-	 */
-	public List<Integer> getSingleMoves(Board board) {
-		List<Integer> validMoves = new ArrayList<Integer>();
-		
-		
-		for (int i = 0; i < board.boardSize * 4; i++) {
-			Board testBoard = board.getCopy();
-			testBoard.doMove(i);
-			if (!board.checkNeighbours(testBoard).isEmpty()) {
-				validMoves.add(i);
-			}
-		}
-		
-		return validMoves;
-	}
-	
-	/**
-	 * Returns a list of valid double moves that can be applied to the main board.
-	 * @return List of moves.
-	 */
-	public List<Tuple<Integer, Integer>> getDoubleMoves(Board board) {
-		List<Tuple<Integer, Integer>> validMoves = new ArrayList<Tuple<Integer, Integer>>();
-		
-		for (int i = 0; i < board.boardSize * 4; i++) {
-			Board testBoard1 = board.getCopy();
-			testBoard1.doMove(i);
-			for (int o = 0; o < board.boardSize * 4; o++) {
-				Board testBoard2 = testBoard1.getCopy();
-				testBoard2.doMove(o);
-				if (!board.checkNeighbours(testBoard2).isEmpty()) {
-					validMoves.add(new Tuple<Integer, Integer>(i, o));
-				}
-			}
-		}
-		
-		return validMoves;
-	}
 }
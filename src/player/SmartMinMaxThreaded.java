@@ -2,27 +2,45 @@ package player;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import game.Ball;
 import game.BallKeeper;
 import game.Board;
+import game.MoveGenerator;
 import game.Tuple;
+import game.Zobrist;
 
 /**
  * 
  * @author Kai Ferdelman
  * A MinMax strategy for the AI player implementing multi threading.
- * The strategy returns the best possible move calculated by the MinMax algorithm.
+ * The strategy returns the best possible move calculated by an alpha-beta search.
+ * Every root move is searched as its own task on a pool with a thread per core.
+ * The tasks share the best score found so far and a transposition table.
+ * The root move the table remembers as best is searched first, alone, so the others
+ * start with its score as the bound to beat.
  * The depth can be individually set.
  * The smart MinMax AI uses a global BallKeeper to improve its capability.
  */
 
 public class SmartMinMaxThreaded implements Strategy {
 
-	/** The desired depth the algorithm should go to. */
+	/** The pool running the root moves, one thread per core. */
+	static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+	
+	/** The desired depth the algorithm should go to, in moves per player. */
 	int level;
 	/** The BallKeeper used by the AI. */
 	BallKeeper bk;
+	/** The transposition table shared by the tasks, null until the first search. */
+	TranspositionTable table;
+	/** The context the table is taken from, null if there is none. */
+	SearchContext context;
+	/** The number of positions visited by the last search. */
+	long nodes;
+	/** The score of the best move found by the last search. */
+	int score;
 	
 	/**
 	 * Constructs a MinMax strategy with a new BallKeeper and default level of 1.
@@ -40,152 +58,126 @@ public class SmartMinMaxThreaded implements Strategy {
 		this.level = level;
 	}
 	
+	/**
+	 * Uses the balls collected in the game so far and the transposition table kept by the context.
+	 * @param context
+	 */
+	@Override
+	public void setSearchContext(SearchContext context) {
+		this.context = context;
+		bk = context.getBallKeeper();
+		table = null;
+	}
+	
+	/**
+	 * Returns the transposition table, taking it from the context or creating it on first use.
+	 * @return table
+	 */
+	TranspositionTable getTable() {
+		if (table == null) {
+			table = context != null ? context.getTranspositionTable() : new TranspositionTable(AlphaBeta.TABLE_MB);
+		}
+		return table;
+	}
+	
+	/**
+	 * Returns the number of positions visited by the last search, over all tasks.
+	 * @return nodes
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+	
+	/**
+	 * Returns the score of the best move found by the last search.
+	 * @return score
+	 */
+	public int getScore() {
+		return score;
+	}
+	
 	//----------------------------Strategy------------------------------------
 	
 	/**
 	 * Returns the best valid single move according to the algorithm.
-	 * Calculates a score for all possible moves and selects the best.
-	 * Each move generates a new thread that runs its own minmax algorithm.
-	 * Also does the move on the AIs board and evaluates it,
-	 * adding adding some balls to its global BallKeeper.
+	 * Calculates a score for all possible moves in parallel and selects the best.
 	 * @param board
 	 * @return move
 	 */	
 	@Override
 	public int determineMove(Board board) {
-		
-		List<Integer> singleMoves = getSingleMoves(board);
-		if (!singleMoves.isEmpty()) {
-			int maxScore = -10;
-			int bestMove = -1;
-			for (int move : singleMoves) {
-				//create copies of board an bk
-				Board testBoard = board.getCopy();
-				BallKeeper testBK = bk.copy();
-				//apply the move
-				testBoard.doMove(move);
-				//update the board and bk
-				for (Ball b : testBoard.checkNeighbours(testBoard)) {
-					b.remove();
-					testBK.addBall(b, "p1");
-					
-				}
-				//evaluate the move
-				MinMaxThread mmThread = new MinMaxThread(level, testBoard, testBK);
-				Thread thread = new Thread(mmThread);
-				thread.start();
-				try {
-					thread.join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				int score  = mmThread.getScore();
-				//check if its best score
-				if (score > maxScore) {
-					maxScore = score;
-					bestMove = move;
-				}
-			}
-			Board testBoard = board.getCopy();
-			testBoard.doMove(bestMove);
-			for (Ball b : board.checkNeighbours(board)) {
-				b.remove();
-				bk.addBall(b, "p1");
-			}
-			return bestMove;
+		int singleMoves = MoveGenerator.getSingleMoves(board);
+		if (singleMoves == 0) {
+			return -1;
+		}
+		AtomicInteger bound = new AtomicInteger(-AlphaBeta.INFINITY);
+		List<MinMaxThread> tasks = new ArrayList<MinMaxThread>();
+		for (int moves = singleMoves; moves != 0; moves &= moves - 1) {
+			int move = Integer.numberOfTrailingZeros(moves);
+			tasks.add(new MinMaxThread(level * 2, board.getCopy(), bk.copy(), getTable(), move, -1, bound));
 		}
-		return -1;
+		MinMaxThread best = runTasks(board, tasks);
+		return best.first;
 	}
 	
 	/**
 	 * Returns the best valid double move according to the algorithm.
-	 * Calculates a score for all possible moves and selects the best.
+	 * Calculates a score for all possible moves in parallel and selects the best.
 	 * @param board
 	 * @return move
 	 */
 	@Override
 	public Tuple<Integer, Integer> determineDoubleMove(Board board) {
-		
-		List<Tuple<Integer, Integer>> doubleMoves = getDoubleMoves(board);
-		if (!doubleMoves.isEmpty()) {
-			int maxScore = -10;
-			Tuple<Integer, Integer> bestMove = null;
-			for (Tuple<Integer, Integer> move : doubleMoves) {
-				//create copies of board an bk
-				Board testBoard = board.getCopy();
-				BallKeeper testBK = bk.copy();
-				//apply the move
-				testBoard.doMove(move);
-				//update the board and bk
-				for (Ball b : testBoard.checkNeighbours(testBoard)) {
-					b.remove();
-					testBK.addBall(b, "p1");
-					
-				}
-				//evaluate the move
-				MinMaxThread mmThread = new MinMaxThread(level, testBoard, testBK);
-				Thread thread = new Thread(mmThread);
-				thread.start();
-				try {
-					thread.join();
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-				int score  = mmThread.getScore();
-				if (score > maxScore) {
-					maxScore = score;
-					bestMove = move;
-				}
-			}
-			Board testBoard = board.getCopy();
-			testBoard.doMove(bestMove);
-			for (Ball b : board.checkNeighbours(board)) {
-				b.remove();
-				bk.addBall(b, "p1");
-			}
-			return bestMove;
+		long[] doubleMoves = MoveGenerator.getDoubleMoves(board);
+		if (MoveGenerator.isEmpty(doubleMoves)) {
+			return null;
+		}
+		AtomicInteger bound = new AtomicInteger(-AlphaBeta.INFINITY);
+		List<MinMaxThread> tasks = new ArrayList<MinMaxThread>();
+		for (int m = MoveGenerator.nextDoubleMove(doubleMoves, 0); m >= 0; m = MoveGenerator.nextDoubleMove(doubleMoves, m + 1)) {
+			tasks.add(new MinMaxThread(level * 2, board.getCopy(), bk.copy(), getTable(),
+					MoveGenerator.first(m), MoveGenerator.second(m), bound));
 		}
-		return null;
+		MinMaxThread best = runTasks(board, tasks);
+		return new Tuple<Integer, Integer>(best.first, best.second);
 	}
-	
+		
 	/**
-	 * Returns a list of valid single moves that can be applied to the main board.
-	 * @return List of moves.
+	 * Runs the tasks and returns the one with the best exact score.
+	 * The task of the move the table remembers as best for the board, or else the first task,
+	 * runs before the others are put on the pool.
+	 * A task that only ties the bound it read last is cut off without an exact score,
+	 * so a tie mostly goes to the move searched alone before the others;
+	 * of two tasks that both reached the same exact score, the one earlier in the list wins.
+	 * @param board the root position
+	 * @param tasks
+	 * @return best task
 	 */
-	public List<Integer> getSingleMoves(Board board) {
-		List<Integer> validMoves = new ArrayList<Integer>();
-		
-		
-		for (int i = 0; i < board.boardSize * 4; i++) {
-			Board testBoard = board.getCopy();
-			testBoard.doMove(i);
-			if (!board.checkNeighbours(testBoard).isEmpty()) {
-				validMoves.add(i);
+	MinMaxThread runTasks(Board board, List<MinMaxThread> tasks) {
+		long entry = table.probe(Zobrist.hash(board, bk, BallKeeper.PLAYER1));
+		int tableMove = entry != 0 ? TranspositionTable.getMove(entry) : TranspositionTable.NO_MOVE;
+		MinMaxThread eldest = tasks.get(0);
+		for (MinMaxThread task : tasks) {
+			if (task.getMove() == tableMove) {
+				eldest = task;
 			}
 		}
-		
-		return validMoves;
-	}
-	
-	/**
-	 * Returns a list of valid double moves that can be applied to the main board.
-	 * @return List of moves.
-	 */
-	public List<Tuple<Integer, Integer>> getDoubleMoves(Board board) {
-		List<Tuple<Integer, Integer>> validMoves = new ArrayList<Tuple<Integer, Integer>>();
-		
-		for (int i = 0; i < board.boardSize * 4; i++) {
-			Board testBoard1 = board.getCopy();
-			testBoard1.doMove(i);
-			for (int o = 0; o < board.boardSize * 4; o++) {
-				Board testBoard2 = testBoard1.getCopy();
-				testBoard2.doMove(o);
-				if (!board.checkNeighbours(testBoard2).isEmpty()) {
-					validMoves.add(new Tuple<Integer, Integer>(i, o));
-				}
+		POOL.invoke(eldest);
+		for (MinMaxThread task : tasks) {
+			if (task != eldest) {
+				POOL.execute(task);
 			}
 		}
-		
-		return validMoves;
+		MinMaxThread best = null;
+		nodes = 0;
+		for (MinMaxThread task : tasks) {
+			int score = task.join();
+			nodes += task.getNodes();
+			if (task.isExact() && (best == null || score > best.join())) {
+				best = task;
+			}
+		}
+		score = best.join();
+		return best;
 	}
 }
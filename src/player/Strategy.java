@@ -16,4 +16,12 @@ public interface Strategy {
 	public static final String STRATEGYNAME = "";
 	int determineMove(Board board);
 	Tuple<Integer, Integer> determineDoubleMove(Board board);
+	
+	/**
+	 * Gives the strategy the search state the AI keeps over the game.
+	 * Strategies take what they use from it; the default uses nothing.
+	 * @param context
+	 */
+	default void setSearchContext(SearchContext context) {
+	}
 }
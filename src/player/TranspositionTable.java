@@ -0,0 +1,159 @@
+package player;
+
+import java.util.Arrays;
+
+/**
+ *
+ * @author Kai Ferdelman
+ * A fixed size table of search results, indexed by the Zobrist hash of a position.
+ * The table is split into buckets of two entries: the first one keeps the deepest result,
+ * the second one always takes the newest result that did not fit in the first.
+ * An entry is stored as two longs, the hash XOR the data and the data itself.
+ * Threads read and write without locks; an entry torn by concurrent writes
+ * no longer matches its hash and is treated as a miss.
+ */
+
+public class TranspositionTable {
+	/** Bound type: the score is at most the stored score. */
+	public static final int UPPER = 1;
+	/** Bound type: the score is at least the stored score. */
+	public static final int LOWER = 2;
+	/** Bound type: the score is exact. */
+	public static final int EXACT = 3;
+	/** Stored move meaning no move is known. */
+	public static final int NO_MOVE = 1023;
+	/** Highest depth that can be stored. */
+	public static final int MAX_DEPTH = 255;
+	/** Number of longs per bucket: two entries of two longs each. */
+	static final int BUCKET = 4;
+	
+	/** The buckets, hash ^ data followed by data for every entry. */
+	private final long[] table;
+	/** Mask selecting a bucket from a hash. */
+	private final int mask;
+	
+	/**
+	 * Constructs a table using about the given number of megabytes.
+	 * The number of buckets is rounded down to a power of two.
+	 * @param megabytes
+	 */
+	public TranspositionTable(int megabytes) {
+		long buckets = Math.max(1, ((long) megabytes << 20) / (BUCKET * 8));
+		int size = Integer.highestOneBit((int) Math.min(buckets, 1 << 28));
+		table = new long[size * BUCKET];
+		mask = size - 1;
+	}
+	
+	/**
+	 * Returns the data stored for a position, 0 if the position is not in the table.
+	 * Use the static getters to read the data.
+	 * @param hash of the position
+	 * @return data
+	 */
+	public long probe(long hash) {
+		int i = index(hash);
+		for (int e = i; e < i + BUCKET; e += 2) {
+			long data = table[e + 1];
+			if ((table[e] ^ data) == hash && data != 0) {
+				return data;
+			}
+		}
+		return 0;
+	}
+	
+	/**
+	 * Stores the result of a search.
+	 * The result replaces the first entry of its bucket if it is at least as deep,
+	 * or if that entry holds the same position, and the second entry otherwise.
+	 * @param hash of the position
+	 * @param depth searched
+	 * @param bound UPPER, LOWER or EXACT
+	 * @param score
+	 * @param move best move found, NO_MOVE if there is none
+	 */
+	public void store(long hash, int depth, int bound, int score, int move) {
+		long data = pack(depth, bound, score, move);
+		int i = index(hash);
+		long first = table[i + 1];
+		int e = i + 2;
+		if ((table[i] ^ first) == hash || depth >= getDepth(first)) {
+			e = i;
+		}
+		table[e] = hash ^ data;
+		table[e + 1] = data;
+	}
+	
+	/**
+	 * Empties the table.
+	 */
+	public void clear() {
+		Arrays.fill(table, 0);
+	}
+	
+	/**
+	 * Returns the number of entries the table can hold.
+	 * @return entries
+	 */
+	public int getCapacity() {
+		return table.length / 2;
+	}
+	
+	/**
+	 * Returns the first long of the bucket of a hash.
+	 * @param hash
+	 * @return index
+	 */
+	private int index(long hash) {
+		return ((int) (hash >>> 32) & mask) * BUCKET;
+	}
+	
+	/**
+	 * Packs the data of an entry: score in bits 0 - 31, depth in 32 - 39,
+	 * bound in 40 - 41 and move in 42 - 51.
+	 * @param depth
+	 * @param bound
+	 * @param score
+	 * @param move
+	 * @return data
+	 */
+	static long pack(int depth, int bound, int score, int move) {
+		return (score & 0xFFFFFFFFL) | (long) Math.min(depth, MAX_DEPTH) << 32
+				| (long) bound << 40 | (long) move << 42;
+	}
+	
+	/**
+	 * Returns the score of an entry.
+	 * @param data
+	 * @return score
+	 */
+	public static int getScore(long data) {
+		return (int) data;
+	}
+	
+	/**
+	 * Returns the depth of an entry.
+	 * @param data
+	 * @return depth
+	 */
+	public static int getDepth(long data) {
+		return (int) (data >>> 32) & 0xFF;
+	}
+	
+	/**
+	 * Returns the bound type of an entry.
+	 * @param data
+	 * @return UPPER, LOWER or EXACT
+	 */
+	public static int getBound(long data) {
+		return (int) (data >>> 40) & 3;
+	}
+	
+	/**
+	 * Returns the best move of an entry.
+	 * @param data
+	 * @return move, NO_MOVE if there is none
+	 */
+	public static int getMove(long data) {
+		return (int) (data >>> 42) & 0x3FF;
+	}
+}
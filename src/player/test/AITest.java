@@ -3,15 +3,40 @@ package player.test;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import game.BallKeeper;
 import game.Board;
+import game.MoveGenerator;
+import game.PositionKey;
+import game.Zobrist;
 import player.AI;
+import player.AlphaBeta;
+import player.EndgameDatabase;
+import player.EndgameGenerator;
+import player.EndgameSolver;
+import player.LazySMP;
 import player.MinMax;
+import player.MonteCarlo;
+import player.MoveOrdering;
 import player.Naive;
+import player.NeuralNet;
+import player.NeuralNetTrainer;
+import player.SearchContext;
 import player.SmartMinMax;
+import player.SmartMinMaxThreaded;
 import player.Strategy;
+import player.TranspositionTable;
 
 public class AITest {
 	private AI ai;
@@ -59,5 +84,566 @@ public class AITest {
 		assertEquals(10, ai.determineSingleMove());
 		
 	}
+	@Test
+	public void testAlphaBetaStrategy() {
+		AlphaBeta alphaBeta = new AlphaBeta();
+		alphaBeta.setLevel(4);
+		ai = new AI(alphaBeta);
+		ai.setBoard(boardString);
+		int move = ai.determineSingleMove();
+		// only the moves into the empty middle cell are legal
+		assertTrue(move == 3 || move == 10 || move == 17 || move == 24);
+		assertTrue(alphaBeta.getNodes() > 0);
+		// the search leaves the board as it was
+		assertEquals(ai.getBoard().toString(), boardString);
+	}
+
+	@Test
+	public void testTimeLimit() {
+		AlphaBeta alphaBeta = new AlphaBeta();
+		alphaBeta.setTimeLimit(50);
+		ai = new AI(alphaBeta);
+		// the full board has far more balls than are solved exactly, so the search deepens
+		ai.setBoard(boardString);
+		long start = System.currentTimeMillis();
+		int move = ai.determineSingleMove();
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue(move == 3 || move == 10 || move == 17 || move == 24);
+		assertTrue(alphaBeta.getCompletedDepth() >= 1);
+		// the clock stops the search, with some slack for a busy machine
+		assertTrue(elapsed < 500, "took " + elapsed + " ms");
+		assertEquals(ai.getBoard().toString(), boardString);
+	}
+
+	@Test
+	public void testTranspositionTable() {
+		TranspositionTable table = new TranspositionTable(1);
+		long hash = 0x123456789ABCDEFL;
+		assertEquals(0, table.probe(hash));
+		table.store(hash, 300, TranspositionTable.UPPER, -4711, TranspositionTable.NO_MOVE);
+		long data = table.probe(hash);
+		assertEquals(-4711, TranspositionTable.getScore(data));
+		// deeper searches are stored as the deepest one that fits
+		assertEquals(TranspositionTable.MAX_DEPTH, TranspositionTable.getDepth(data));
+		assertEquals(TranspositionTable.UPPER, TranspositionTable.getBound(data));
+		assertEquals(TranspositionTable.NO_MOVE, TranspositionTable.getMove(data));
+		table.store(hash, 0, TranspositionTable.EXACT, Integer.MAX_VALUE, 811);
+		data = table.probe(hash);
+		assertEquals(Integer.MAX_VALUE, TranspositionTable.getScore(data));
+		assertEquals(0, TranspositionTable.getDepth(data));
+		assertEquals(TranspositionTable.EXACT, TranspositionTable.getBound(data));
+		assertEquals(811, TranspositionTable.getMove(data));
+		table.clear();
+		assertEquals(0, table.probe(hash));
+	}
+
+	@Test
+	public void testTranspositionTableReplacement() {
+		TranspositionTable table = new TranspositionTable(1);
+		// the upper half of the hash picks the bucket, so these share one
+		long deep = 0x1234567800000001L;
+		long shallow = 0x1234567800000002L;
+		long newer = 0x1234567800000003L;
+		long deeper = 0x1234567800000004L;
+		table.store(deep, 5, TranspositionTable.EXACT, 1, 1);
+		table.store(shallow, 2, TranspositionTable.EXACT, 2, 2);
+		assertEquals(1, TranspositionTable.getScore(table.probe(deep)));
+		assertEquals(2, TranspositionTable.getScore(table.probe(shallow)));
+		// the deepest result stays, the newest shallow one replaces the other
+		table.store(newer, 1, TranspositionTable.EXACT, 3, 3);
+		assertEquals(1, TranspositionTable.getScore(table.probe(deep)));
+		assertEquals(0, table.probe(shallow));
+		assertEquals(3, TranspositionTable.getScore(table.probe(newer)));
+		// the same position replaces its own entry, even when shallower
+		table.store(deep, 1, TranspositionTable.LOWER, 4, 4);
+		assertEquals(4, TranspositionTable.getScore(table.probe(deep)));
+		assertEquals(3, TranspositionTable.getScore(table.probe(newer)));
+		table.store(deeper, 6, TranspositionTable.EXACT, 5, 5);
+		assertEquals(0, table.probe(deep));
+		assertEquals(5, TranspositionTable.getScore(table.probe(deeper)));
+		assertEquals(3, TranspositionTable.getScore(table.probe(newer)));
+	}
+
+	@Test
+	public void testTranspositionTableTornEntry() throws ReflectiveOperationException {
+		TranspositionTable table = new TranspositionTable(1);
+		long hash = 0x1234567800000001L;
+		table.store(hash, 3, TranspositionTable.EXACT, 7, 7);
+		table.store(0x7654321000000001L, 4, TranspositionTable.LOWER, 8, 8);
+		long data = table.probe(hash);
+		long other = table.probe(0x7654321000000001L);
+		Field field = TranspositionTable.class.getDeclaredField("table");
+		field.setAccessible(true);
+		long[] entries = (long[]) field.get(table);
+		// a write of another position that only got halfway
+		for (int e = 0; e < entries.length; e += 2) {
+			if (entries[e + 1] == data) {
+				entries[e + 1] = other;
+			}
+		}
+		assertEquals(0, table.probe(hash));
+	}
+
+	@Test
+	public void testSmartMinMaxThreadedStrategy() {
+		for (String board : randomBoards(6, 14)) {
+			AlphaBeta alphaBeta = new AlphaBeta();
+			alphaBeta.setLevel(4);
+			alphaBeta.setEndgameBalls(0);
+			ai = new AI(alphaBeta);
+			ai.setBoard(board);
+			ai.determineSingleMove();
+			SmartMinMaxThreaded threaded = new SmartMinMaxThreaded();
+			threaded.setLevel(2);
+			ai = new AI(threaded);
+			ai.setBoard(board);
+			ai.determineSingleMove();
+			// the root moves searched in parallel find a move as good as the serial search
+			assertEquals(alphaBeta.getScore(), threaded.getScore(), board);
+			assertEquals(board, ai.getBoard().toString());
+		}
+	}
+
+	@Test
+	public void testLazySMPStrategy() {
+		for (String board : randomBoards(6, 15)) {
+			AlphaBeta alphaBeta = new AlphaBeta();
+			alphaBeta.setLevel(4);
+			alphaBeta.setEndgameBalls(0);
+			ai = new AI(alphaBeta);
+			ai.setBoard(board);
+			ai.determineSingleMove();
+			LazySMP lazySMP = new LazySMP(4);
+			lazySMP.setLevel(4);
+			lazySMP.setEndgameBalls(0);
+			ai = new AI(lazySMP);
+			ai.setBoard(board);
+			int move = ai.determineSingleMove();
+			assertEquals(board, ai.getBoard().toString());
+			// the helpers search no deeper than the level, so the move it picks is as good as the serial one
+			assertEquals(alphaBeta.getScore(), scoreOf(board, move, 4), board);
+			assertEquals(alphaBeta.getScore(), lazySMP.getScore(), board);
+		}
+	}
+
+	@Test
+	public void testLazySMPSingleThread() {
+		AlphaBeta alphaBeta = new AlphaBeta();
+		alphaBeta.setLevel(4);
+		ai = new AI(alphaBeta);
+		ai.setBoard(boardString);
+		int serial = ai.determineSingleMove();
+		LazySMP lazySMP = new LazySMP(1);
+		lazySMP.setLevel(4);
+		ai = new AI(lazySMP);
+		ai.setBoard(boardString);
+		// without helpers it is the serial search
+		assertEquals(serial, ai.determineSingleMove());
+		assertEquals(alphaBeta.getScore(), lazySMP.getScore());
+		assertEquals(alphaBeta.getNodes(), lazySMP.getNodes());
+		assertEquals(alphaBeta.getCompletedDepth(), lazySMP.getCompletedDepth());
+	}
+
+	@Test
+	public void testMoveOrdering() {
+		MoveOrdering ordering = new MoveOrdering();
+		long[] entries = new long[MoveGenerator.MOVES];
+		int moves = (1 << 3) | (1 << 10) | (1 << 17) | (1 << 24);
+		// without anything known the lower move goes first
+		assertEquals(3, first(ordering, moves, TranspositionTable.NO_MOVE, 0, entries));
+		// a move that caused a cutoff goes first in its sibling positions
+		ordering.cutoff(17, 0, 1);
+		assertEquals(17, first(ordering, moves, TranspositionTable.NO_MOVE, 0, entries));
+		// the table move goes before the killer moves
+		assertEquals(24, first(ordering, moves, 24, 0, entries));
+		// a second killer keeps the first one as the next move to try
+		ordering.cutoff(10, 0, 1);
+		int count = ordering.order(moves, TranspositionTable.NO_MOVE, 0, entries);
+		assertEquals(4, count);
+		assertEquals(10, MoveOrdering.pick(entries, count, 0));
+		assertEquals(17, MoveOrdering.pick(entries, count, 1));
+	}
+
+	@Test
+	public void testMoveOrderingHistory() {
+		MoveOrdering ordering = new MoveOrdering();
+		long[] entries = new long[MoveGenerator.MOVES];
+		int moves = (1 << 3) | (1 << 10) | (1 << 17) | (1 << 24);
+		// deeper cutoffs count more, at plies without killer moves too
+		ordering.cutoff(24, 5, 4);
+		ordering.cutoff(10, 5, 3);
+		assertEquals(24, first(ordering, moves, TranspositionTable.NO_MOVE, 6, entries));
+		// aging halves the old history, so a new cutoff outweighs it
+		ordering.age();
+		ordering.cutoff(17, 5, 3);
+		assertEquals(17, first(ordering, moves, TranspositionTable.NO_MOVE, 6, entries));
+		ordering.clear();
+		assertEquals(3, first(ordering, moves, TranspositionTable.NO_MOVE, 6, entries));
+	}
+
+	@Test
+	public void testMoveOrderingShift() {
+		MoveOrdering ordering = new MoveOrdering();
+		long[] entries = new long[MoveGenerator.MOVES];
+		int moves = (1 << 3) | (1 << 10) | (1 << 17) | (1 << 24);
+		ordering.cutoff(10, 2, 1);
+		ordering.cutoff(24, 9, 5);
+		// after a move of the game the killers belong one ply closer to the root
+		ordering.shift();
+		assertEquals(10, first(ordering, moves, TranspositionTable.NO_MOVE, 1, entries));
+		assertEquals(24, first(ordering, moves, TranspositionTable.NO_MOVE, 8, entries));
+		// the ply the killer came from now orders by history only
+		assertEquals(24, first(ordering, moves, TranspositionTable.NO_MOVE, 2, entries));
+	}
+
+	@Test
+	public void testSearchContext() {
+		MonteCarlo monteCarlo = new MonteCarlo();
+		monteCarlo.setThreads(1);
+		monteCarlo.setTimeLimit(0);
+		monteCarlo.setPlayoutLimit(200);
+		ai = new AI(monteCarlo);
+		ai.setBoard(boardString);
+		int move = ai.determineSingleMove();
+		ai.playMove(move, true);
+		// the balls the move collected are counted for the AI
+		BallKeeper ballKeeper = ai.getSearchContext().getBallKeeper();
+		assertEquals(48 - Long.bitCount(ai.getBoard().getOccupied()), ballKeeper.getNumOfBalls(BallKeeper.PLAYER1));
+		// the tree below the played move is kept for the next search
+		assertTrue(ai.getSearchContext().getTree() != null);
+		ai.setBoard(boardString);
+		assertEquals(0, ballKeeper.getNumOfBalls(BallKeeper.PLAYER1));
+	}
+
+	@Test
+	public void testPondering() throws InterruptedException {
+		Board board = new Board();
+		board.setBoard(boardString);
+		int reply = Integer.numberOfTrailingZeros(MoveGenerator.getSingleMoves(board));
+		AlphaBeta unprepared = new AlphaBeta();
+		unprepared.setLevel(3);
+		ai = new AI(unprepared);
+		ai.setBoard(boardString);
+		ai.playMove(reply, false);
+		ai.determineSingleMove();
+		AlphaBeta alphaBeta = new AlphaBeta();
+		alphaBeta.setLevel(3);
+		ai = new AI(alphaBeta);
+		ai.setPondering(true);
+		ai.setBoard(boardString);
+		ai.startPondering();
+		Thread.sleep(200);
+		ai.stopPondering();
+		// pondering works on a copy of the board and fills the table for the opponent's position
+		assertEquals(ai.getBoard().toString(), boardString);
+		SearchContext context = ai.getSearchContext();
+		long hash = Zobrist.hash(ai.getBoard(), context.getBallKeeper(), BallKeeper.PLAYER2);
+		assertTrue(context.getTranspositionTable().probe(hash) != 0);
+		// so the search after the opponent's reply has less left to do
+		ai.playMove(reply, false);
+		ai.determineSingleMove();
+		assertTrue(alphaBeta.getNodes() < unprepared.getNodes());
+	}
+
+	@Test
+	public void testEndgameSolver() {
+		String endgame = "1010000" + "0300000" + "0000000" + "0000000"
+				+ "0000030" + "0000000" + "0000202";
+		AlphaBeta searched = new AlphaBeta();
+		searched.setEndgameBalls(0);
+		searched.setLevel(20);
+		ai = new AI(searched);
+		ai.setBoard(endgame);
+		ai.determineSingleMove();
+		AlphaBeta solved = new AlphaBeta();
+		ai = new AI(solved);
+		ai.setBoard(endgame);
+		ai.determineSingleMove();
+		// the solver finds the same exact outcome as a search to the end of the game
+		assertEquals(searched.getScore(), solved.getScore());
+		assertTrue(solved.getCompletedDepth() > searched.getCompletedDepth());
+		assertEquals(ai.getBoard().toString(), endgame);
+	}
+
+	@Test
+	public void testEndgameSolverDeadline() {
+		Random random = new Random(3);
+		Board board = new Board();
+		do {
+			for (int i = 0; i < 49; i++) {
+				board.setColor(i, 1 + random.nextInt(6));
+			}
+			board.removeBalls(board.getNeighbourMask());
+			while (Long.bitCount(board.getOccupied()) > 16 && MoveGenerator.getSingleMoves(board) != 0) {
+				int singleMoves = MoveGenerator.getSingleMoves(board);
+				board.doMove(MoveGenerator.nthMove(singleMoves, random.nextInt(Integer.bitCount(singleMoves))));
+				board.removeBalls(board.getNeighbourMask());
+			}
+			board.clearJournal();
+		} while (Long.bitCount(board.getOccupied()) > 16 || MoveGenerator.getSingleMoves(board) == 0);
+		String endgame = board.toString();
+		int[] moves = new int[Integer.bitCount(MoveGenerator.getSingleMoves(board))];
+		for (int i = 0, rest = MoveGenerator.getSingleMoves(board); rest != 0; rest &= rest - 1) {
+			moves[i++] = Integer.numberOfTrailingZeros(rest);
+		}
+		BallKeeper ballKeeper = new BallKeeper("p1", "p2");
+		EndgameSolver solver = new EndgameSolver();
+		// a deadline that has passed stops the solve without a result
+		solver.setDeadline(1);
+		assertEquals(-1, solver.solveRoot(board, ballKeeper, BallKeeper.PLAYER1, moves, null));
+		assertTrue(solver.isStopped());
+		assertEquals(endgame, board.toString());
+		// and leaves nothing wrong in the table for the next solve
+		solver.setDeadline(0);
+		int best = solver.solveRoot(board, ballKeeper, BallKeeper.PLAYER1, moves, null);
+		EndgameSolver fresh = new EndgameSolver();
+		assertEquals(best, fresh.solveRoot(board, ballKeeper, BallKeeper.PLAYER1, moves, null));
+		assertEquals(fresh.getScore(), solver.getScore());
+		// a time limited search that has no time to solve deepens instead
+		AlphaBeta alphaBeta = new AlphaBeta();
+		alphaBeta.setTimeLimit(1);
+		ai = new AI(alphaBeta);
+		ai.setBoard(endgame);
+		int move = ai.determineSingleMove();
+		assertTrue((MoveGenerator.getSingleMoves(board) & 1 << move) != 0);
+		assertTrue(alphaBeta.getCompletedDepth() >= 1);
+	}
+
+	@Test
+	public void testEndgameDatabase() throws IOException {
+		Board endgame = new Board();
+		endgame.setBoard("1010000" + "0300000" + "0000000" + "0000000"
+				+ "0000030" + "0000000" + "0000202");
+		BallKeeper ballKeeper = new BallKeeper("p1", "p2");
+		ballKeeper.addBalls(BallKeeper.PLAYER1, 3, 2);
+		int score = new EndgameSolver().solve(endgame, ballKeeper, BallKeeper.PLAYER1);
+		File file = File.createTempFile("endgame", ".db");
+		file.deleteOnExit();
+		PositionKey key = EndgameDatabase.key(endgame, ballKeeper, BallKeeper.PLAYER1);
+		long hash = EndgameDatabase.hash(key);
+		long check = EndgameDatabase.check(key);
+		EndgameDatabase.write(file.getPath(), 8, new long[] {hash}, new long[] {check}, new int[] {score}, 1);
+		EndgameDatabase database = EndgameDatabase.open(file.getPath());
+		assertEquals(score, database.getScore(endgame, ballKeeper, BallKeeper.PLAYER1));
+		// the same position seen from the other player is a different position
+		assertEquals(EndgameDatabase.NOT_FOUND, database.getScore(endgame, ballKeeper, BallKeeper.PLAYER2));
+		// a record that only matches the hash is taken for another position
+		file = File.createTempFile("endgame", ".db");
+		file.deleteOnExit();
+		EndgameDatabase.write(file.getPath(), 8, new long[] {hash, hash}, new long[] {check - 1, check + 1},
+				new int[] {score - 1, score + 1}, 2);
+		database = EndgameDatabase.open(file.getPath());
+		assertEquals(EndgameDatabase.NOT_FOUND, database.getScore(endgame, ballKeeper, BallKeeper.PLAYER1));
+		// among records sharing the hash, the one with the check is found
+		file = File.createTempFile("endgame", ".db");
+		file.deleteOnExit();
+		EndgameDatabase.write(file.getPath(), 8, new long[] {hash, hash, hash}, new long[] {check - 1, check, check + 1},
+				new int[] {score - 1, score, score + 1}, 3);
+		database = EndgameDatabase.open(file.getPath());
+		assertEquals(score, database.getScore(endgame, ballKeeper, BallKeeper.PLAYER1));
+	}
+
+	@Test
+	public void testEndgameGenerator() throws IOException {
+		EndgameGenerator generator = new EndgameGenerator(8, 11);
+		for (int i = 0; i < 3; i++) {
+			generator.addGame();
+		}
+		assertTrue(generator.size() > 0);
+		File file = File.createTempFile("endgame", ".db");
+		file.deleteOnExit();
+		generator.write(file.getPath());
+		EndgameDatabase database = EndgameDatabase.open(file.getPath());
+		assertEquals(generator.size(), database.size());
+		EndgameSolver solver = new EndgameSolver();
+		// every stored position has the score the solver finds for it on its own
+		for (Map.Entry<PositionKey, Integer> entry : generator.getScores().entrySet()) {
+			Board board = entry.getKey().toBoard();
+			BallKeeper ballKeeper = entry.getKey().toBallKeeper("p1", "p2");
+			int player = entry.getKey().getSideToMove();
+			assertEquals((int) entry.getValue(), solver.solve(board, ballKeeper, player));
+			assertEquals((int) entry.getValue(), database.getScore(board, ballKeeper, player));
+		}
+	}
+
+	@Test
+	public void testMonteCarloStrategy() {
+		MonteCarlo monteCarlo = new MonteCarlo();
+		monteCarlo.setThreads(2);
+		monteCarlo.setTimeLimit(0);
+		monteCarlo.setPlayoutLimit(500);
+		ai = new AI(monteCarlo);
+		ai.setBoard(boardString);
+		int move = ai.determineSingleMove();
+		assertTrue(move == 3 || move == 10 || move == 17 || move == 24);
+		assertEquals(500, monteCarlo.getPlayouts());
+		// the playouts leave the board as it was
+		assertEquals(ai.getBoard().toString(), boardString);
+	}
+
+	@Test
+	public void testNeuralNet() {
+		NeuralNet net = new NeuralNet(2, 32, 1);
+		Board board = new Board();
+		board.setBoard(boardString);
+		BallKeeper ballKeeper = new BallKeeper("p1", "p2");
+		ballKeeper.addBalls(BallKeeper.PLAYER1, 3, 2);
+		float single = net.evaluate(board, ballKeeper, BallKeeper.PLAYER1);
+		assertTrue(single > -1 && single < 1);
+		// a position evaluated in a batch gets the same value as on its own
+		NeuralNet copy = net.copy();
+		copy.encode(board, ballKeeper, BallKeeper.PLAYER2, 0);
+		for (int i = 1; i < 5; i++) {
+			copy.encode(board, ballKeeper, BallKeeper.PLAYER1, i);
+		}
+		copy.forward(5);
+		assertEquals(single, copy.getValue(1), 1e-5);
+		assertEquals(single, copy.getValue(4), 1e-5);
+		ai = new AI(net);
+		ai.setBoard(boardString);
+		int move = ai.determineSingleMove();
+		assertTrue(move == 3 || move == 10 || move == 17 || move == 24);
+		assertEquals(ai.getBoard().toString(), boardString);
+	}
+
+	@Test
+	public void testNeuralNetTrainer() throws IOException {
+		NeuralNet net = new NeuralNet(1, 16, 2);
+		NeuralNetTrainer trainer = new NeuralNetTrainer(net, Naive::new, 2, 3);
+		int positions = trainer.selfPlay(2);
+		assertTrue(positions > 0);
+		assertEquals(positions, trainer.size());
+		float loss = trainer.train(3);
+		assertTrue(loss > 0 && !Float.isNaN(loss));
+		// the newest generation written is the one loaded
+		File directory = Files.createTempDirectory("weights").toFile();
+		String base = new File(directory, "net").getPath();
+		net.save(NeuralNet.fileName(base, 1));
+		net.setGeneration(2);
+		net.save(NeuralNet.fileName(base, 2));
+		NeuralNet loaded = NeuralNet.loadLatest(base);
+		assertEquals(2, loaded.getGeneration());
+		Board board = new Board();
+		board.setBoard(boardString);
+		BallKeeper ballKeeper = new BallKeeper("p1", "p2");
+		assertEquals(net.evaluate(board, ballKeeper, BallKeeper.PLAYER1), loaded.evaluate(board, ballKeeper, BallKeeper.PLAYER1));
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	@Test
+	public void testQuantizedNeuralNet() throws IOException {
+		NeuralNet net = new NeuralNet(2, 32, 4);
+		NeuralNet quantized = net.quantize();
+		assertTrue(quantized.isQuantized());
+		Board board = new Board();
+		board.setBoard(boardString);
+		BallKeeper ballKeeper = new BallKeeper("p1", "p2");
+		ballKeeper.addBalls(BallKeeper.PLAYER2, 6, 4);
+		// the integer evaluation stays close to the float one
+		float exact = net.evaluate(board, ballKeeper, BallKeeper.PLAYER2);
+		assertEquals(exact, quantized.evaluate(board, ballKeeper, BallKeeper.PLAYER2), 0.05);
+		// the quantized weight file is about a quarter of the size and reads back the same
+		File floats = File.createTempFile("net", ".weights");
+		File bytes = File.createTempFile("net", ".int8");
+		floats.deleteOnExit();
+		bytes.deleteOnExit();
+		net.save(floats.getPath());
+		quantized.save(bytes.getPath());
+		assertTrue(bytes.length() * 3 < floats.length());
+		NeuralNet loaded = NeuralNet.load(bytes.getPath());
+		assertTrue(loaded.isQuantized());
+		assertEquals(quantized.evaluate(board, ballKeeper, BallKeeper.PLAYER2), loaded.evaluate(board, ballKeeper, BallKeeper.PLAYER2));
+		// a batch, larger than the buffers hold at first, gives every position the value it has alone
+		List<String> boards = randomBoards(70, 8);
+		for (int i = 0; i < boards.size(); i++) {
+			board.setBoard(boards.get(i));
+			loaded.encode(board, ballKeeper, BallKeeper.PLAYER1, i);
+		}
+		loaded.forward(boards.size());
+		float[] values = new float[boards.size()];
+		for (int i = 0; i < boards.size(); i++) {
+			values[i] = loaded.getValue(i);
+		}
+		float difference = 0;
+		for (int i = 0; i < boards.size(); i++) {
+			board.setBoard(boards.get(i));
+			assertEquals(values[i], quantized.evaluate(board, ballKeeper, BallKeeper.PLAYER1));
+			difference += Math.abs(net.evaluate(board, ballKeeper, BallKeeper.PLAYER1) - values[i]);
+		}
+		assertTrue(difference / boards.size() < 0.02);
+		ai = new AI(loaded);
+		ai.setBoard(boardString);
+		int move = ai.determineSingleMove();
+		assertTrue(move == 3 || move == 10 || move == 17 || move == 24);
+	}
+
+	/**
+	 * Returns boards of random games, a few random moves in, that have single moves.
+	 * @param count number of boards
+	 * @param seed of the games
+	 * @return board strings
+	 */
+	private static List<String> randomBoards(int count, long seed) {
+		Random random = new Random(seed);
+		List<String> boards = new ArrayList<String>();
+		while (boards.size() < count) {
+			Board board = new Board();
+			for (int i = 0; i < 49; i++) {
+				board.setColor(i, 1 + random.nextInt(6));
+			}
+			board.removeBalls(board.getNeighbourMask());
+			for (int ply = 0; ply < 4 && MoveGenerator.getSingleMoves(board) != 0; ply++) {
+				int singleMoves = MoveGenerator.getSingleMoves(board);
+				board.doMove(MoveGenerator.nthMove(singleMoves, random.nextInt(Integer.bitCount(singleMoves))));
+				board.removeBalls(board.getNeighbourMask());
+			}
+			board.clearJournal();
+			if (MoveGenerator.getSingleMoves(board) != 0) {
+				boards.add(board.toString());
+			}
+		}
+		return boards;
+	}
+
+	/**
+	 * Returns the score of a single move searched serially to a level,
+	 * which is the score of the opponent's best reply one ply less deep, negated.
+	 * @param board string with the player to move
+	 * @param move
+	 * @param level plies including the move
+	 * @return score for the player to move
+	 */
+	private static int scoreOf(String board, int move, int level) {
+		AlphaBeta opponent = new AlphaBeta();
+		opponent.setLevel(level - 1);
+		opponent.setEndgameBalls(0);
+		AI reply = new AI(opponent);
+		reply.setBoard(board);
+		reply.playMove(move, false);
+		if (MoveGenerator.getSingleMoves(reply.getBoard()) != 0) {
+			reply.determineSingleMove();
+		} else if (reply.determineDoubleMove() == null) {
+			// the game is over, the balls collected so far decide
+			return -reply.getSearchContext().getBallKeeper().getScore(BallKeeper.PLAYER1);
+		}
+		return -opponent.getScore();
+	}
+
+	/**
+	 * Returns the move a move ordering tries first.
+	 * @param ordering
+	 * @param moves mask of single moves
+	 * @param tableMove
+	 * @param ply
+	 * @param entries buffer
+	 * @return move
+	 */
+	private static int first(MoveOrdering ordering, int moves, int tableMove, int ply, long[] entries) {
+		int count = ordering.order(moves, tableMove, ply, entries);
+		return MoveOrdering.pick(entries, count, 0);
+	}
 
 }